@@ -0,0 +1,128 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive Replacement Cache. T1 holds keys seen once recently, T2 keys seen
+ * at least twice; B1 and B2 are ghost lists of keys recently evicted from
+ * each. A re-insert that hits a ghost list shifts the target size p of T1,
+ * so the policy adapts between recency and frequency on its own.
+ */
+public class ArcPolicy implements EvictionPolicy {
+
+    private final LinkedHashSet<String> t1;
+    private final LinkedHashSet<String> t2;
+    private final LinkedHashSet<String> b1;
+    private final LinkedHashSet<String> b2;
+    private final CacheStatistics statistics;
+    private int capacity;
+    // Target size of T1
+    private int p;
+
+    public ArcPolicy(int maxEntries, CacheStatistics statistics) {
+        this.t1 = new LinkedHashSet<>();
+        this.t2 = new LinkedHashSet<>();
+        this.b1 = new LinkedHashSet<>();
+        this.b2 = new LinkedHashSet<>();
+        this.statistics = statistics;
+        this.capacity = Math.max(1, maxEntries);
+        this.p = 0;
+    }
+
+    @Override
+    public void add(String key, CachedPlan plan) {
+        if (t1.contains(key) || t2.contains(key)) {
+            recordAccess(key);
+            return;
+        }
+        if (b1.contains(key)) {
+            // Recency list was evicted too eagerly: grow T1's target
+            int delta = b1.size() >= b2.size() ? 1 : b2.size() / b1.size();
+            p = Math.min(capacity, p + delta);
+            b1.remove(key);
+            t2.add(key);
+        } else if (b2.contains(key)) {
+            // Frequency list was evicted too eagerly: shrink T1's target
+            int delta = b2.size() >= b1.size() ? 1 : b1.size() / b2.size();
+            p = Math.max(0, p - delta);
+            b2.remove(key);
+            t2.add(key);
+        } else {
+            t1.add(key);
+        }
+        trimGhosts();
+        statistics.recordAdmission();
+    }
+
+    @Override
+    public void recordAccess(String key) {
+        if (t1.remove(key) || t2.remove(key)) {
+            t2.add(key);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        if (!t1.remove(key)) {
+            t2.remove(key);
+        }
+    }
+
+    @Override
+    public String evict() {
+        String victim;
+        if (!t1.isEmpty() && (t1.size() > p || t2.isEmpty())) {
+            victim = pollFirst(t1);
+            b1.add(victim);
+        } else {
+            victim = pollFirst(t2);
+            if (victim != null) {
+                b2.add(victim);
+            }
+        }
+        trimGhosts();
+        return victim;
+    }
+
+    @Override
+    public void setMaximumSize(int maxEntries) {
+        capacity = Math.max(1, maxEntries);
+        p = Math.min(p, capacity);
+        trimGhosts();
+    }
+
+    @Override
+    public void clear() {
+        t1.clear();
+        t2.clear();
+        b1.clear();
+        b2.clear();
+        p = 0;
+    }
+
+    @Override
+    public int size() {
+        return t1.size() + t2.size();
+    }
+
+    /**
+     * Keep |T1| + |B1| <= c and the whole directory within 2c
+     */
+    private void trimGhosts() {
+        while (!b1.isEmpty() && t1.size() + b1.size() > capacity) {
+            pollFirst(b1);
+        }
+        while (!b2.isEmpty() && size() + b1.size() + b2.size() > 2 * capacity) {
+            pollFirst(b2);
+        }
+    }
+
+    private static String pollFirst(LinkedHashSet<String> list) {
+        Iterator<String> it = list.iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        String key = it.next();
+        it.remove();
+        return key;
+    }
+}
@@ -0,0 +1,854 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * One shard of the plan cache. Each segment owns its entries, generation
+ * locks, eviction policy, event buffers, timer wheel and a share of the
+ * entry and byte capacity, so misses on different segments never contend.
+ * Counters go to the statistics object shared by all segments.
+ *
+ * The map is updated directly by readers and writers; everything else is
+ * changed only by maintenance under the eviction lock. Hits go through a
+ * lossy ReadBuffer and map changes through a bounded write buffer, both
+ * replayed in the next maintenance cycle.
+ *
+ * Each tenant has its own eviction policy within the segment, sized for
+ * the tenant's quota and grown as the tenant does. Tenants may grow past
+ * their quota while the segment has room; once it is full, the victim
+ * comes from the tenant furthest over its quota. Statement types
+ * with a configured pool are kept apart from that general region, in a
+ * pool with its own policy and a hard budget shared by all tenants.
+ */
+public class CacheSegment {
+
+    private static final int WRITE_BUFFER_CAPACITY = 1024;
+    // Evictions per maintenance cycle, so shrinking the cache never stalls one caller
+    private static final int EVICTION_BATCH_SIZE = 256;
+    static final long MAXIMUM_LIFETIME_NANOS = Long.MAX_VALUE >> 1;
+    // Entries a tenant's policy is first sized for, unless its quota is larger
+    private static final int INITIAL_TENANT_POLICY_CAPACITY = 64;
+
+    /**
+     * A tenant's eviction order and usage within this segment
+     */
+    private static final class TenantShare {
+        final String tenant;
+        final EvictionPolicy policy;
+        // Quota share for this segment, or 0 for an equal split of the segment
+        final int quotaEntries;
+        final long quotaWeightBytes;
+        long weightedSize;
+        // Entries the policy is sized for, doubled when the tenant outgrows it
+        int policyCapacity;
+        // Usage the share is ordered by, as of its last reorder()
+        double rank;
+
+        TenantShare(String tenant, EvictionPolicy policy, int quotaEntries, long quotaWeightBytes,
+                    int policyCapacity) {
+            this.tenant = tenant;
+            this.policy = policy;
+            this.quotaEntries = quotaEntries;
+            this.quotaWeightBytes = quotaWeightBytes;
+            this.policyCapacity = policyCapacity;
+        }
+    }
+
+    private static final Comparator<TenantShare> BY_RANK =
+        Comparator.comparingDouble((TenantShare share) -> share.rank).thenComparing(share -> share.tenant);
+
+    /**
+     * Reserved capacity for one statement type within this segment
+     */
+    private static final class TypePool {
+        final EvictionPolicy policy;
+        final int maxEntries;
+        final long maximumWeightBytes;
+        long weightedSize;
+
+        TypePool(EvictionPolicy policy, int maxEntries, long maximumWeightBytes) {
+            this.policy = policy;
+            this.maxEntries = maxEntries;
+            this.maximumWeightBytes = maximumWeightBytes;
+        }
+    }
+
+    /**
+     * One map transition for a key, replayed into the policy, wheel and weight
+     */
+    private static final class WriteEvent {
+        final String key;
+        final CachedPlan added;
+        final CachedPlan removed;
+
+        WriteEvent(String key, CachedPlan added, CachedPlan removed) {
+            this.key = key;
+            this.added = added;
+            this.removed = removed;
+        }
+    }
+
+    private final ConcurrentHashMap<String, CachedPlan> planCache;
+    // Per-key locks to prevent duplicate plan generation
+    private final ConcurrentHashMap<String, Object> generationLocks;
+    // Shared Tier 1 map; removing a plan drops its raw-query mappings
+    private final QueryKeyCache queryToKeyCache;
+    private final CacheStatistics statistics;
+    private final Function<String, CacheStatistics> tenantStatistics;
+    private final PlanWeigher weigher;
+    // Live-resizable limits, written under evictionLock
+    private volatile Expiry expiry;
+    private volatile int maxEntries;
+    private volatile long maximumWeightBytes;
+    private final long staleGraceNanos;
+
+    // Pluggable eviction ordering per tenant, guarded by evictionLock
+    private final EvictionPolicy.Factory policyFactory;
+    private final Map<String, CapacityQuota> tenantQuotas;
+    private final int segmentCount;
+    private final Map<String, TenantShare> tenants;
+    // Tenants holding plans, by usage: those with a quota by their use of it,
+    // the others by their use of the whole segment
+    private final TreeSet<TenantShare> quotaOrder;
+    private final TreeSet<TenantShare> splitOrder;
+    private final EnumMap<StatementType, TypePool> typePools;
+    private final ReentrantLock evictionLock;
+    // Hits and map changes, replayed into the tenant policies under the lock
+    private final ReadBuffer readBuffer;
+    private final ArrayBlockingQueue<WriteEvent> writeBuffer;
+    // Proactive TTL expiration, advanced by maintenance() under evictionLock
+    private final TimerWheel expirationWheel;
+    // Estimated bytes retained by this segment, guarded by evictionLock
+    private long weightedSize;
+    // Part of weightedSize held in statement type pools
+    private long pooledWeightedSize;
+    // Pinned plans in planCache, which count against the pinned budget instead
+    private int pinnedEntries;
+    // Optional tier receiving evicted plans; evictions queue here under the
+    // lock and are handed over after the lock is released
+    private final BiConsumer<String, CachedPlan> evictionSink;
+    private final ConcurrentLinkedQueue<Map.Entry<String, CachedPlan>> evictedPlans;
+    // Storage for plan trees in off-heap mode, or null to keep them on-heap.
+    // A plan's chunk is freed once the plan has left planCache for good.
+    private final OffHeapArena offHeapArena;
+    private final Ticker ticker;
+    // Receives every plan leaving planCache, or null without a listener
+    private final RemovalDispatcher removalDispatcher;
+
+    public CacheSegment(int maxEntries, long maximumWeightBytes, long staleGraceNanos,
+                        QueryPlanCacheConfig config, CacheStatistics statistics,
+                        Function<String, CacheStatistics> tenantStatistics,
+                        QueryKeyCache queryToKeyCache,
+                        BiConsumer<String, CachedPlan> evictionSink,
+                        OffHeapArena offHeapArena, RemovalDispatcher removalDispatcher) {
+        this.planCache = new ConcurrentHashMap<>();
+        this.generationLocks = new ConcurrentHashMap<>();
+        this.queryToKeyCache = queryToKeyCache;
+        this.statistics = statistics;
+        this.tenantStatistics = tenantStatistics;
+        this.weigher = config.getWeigher();
+        this.expiry = config.getExpiry();
+        this.maxEntries = maxEntries;
+        this.maximumWeightBytes = maximumWeightBytes;
+        this.staleGraceNanos = staleGraceNanos;
+        this.policyFactory = config.getEvictionPolicy();
+        this.tenantQuotas = config.getTenantQuotas();
+        this.segmentCount = config.getSegments();
+        this.tenants = new HashMap<>();
+        this.quotaOrder = new TreeSet<>(BY_RANK);
+        this.splitOrder = new TreeSet<>(BY_RANK);
+        this.typePools = new EnumMap<>(StatementType.class);
+        for (Map.Entry<StatementType, CapacityQuota> pool : config.getStatementTypePools().entrySet()) {
+            int poolEntries = Math.max(1, pool.getValue().getMaxEntries() / segmentCount);
+            long poolWeight = Math.max(1, pool.getValue().getMaximumWeightBytes() / segmentCount);
+            typePools.put(pool.getKey(),
+                new TypePool(policyFactory.create(poolEntries, statistics), poolEntries, poolWeight));
+        }
+        this.evictionLock = new ReentrantLock();
+        this.readBuffer = new ReadBuffer();
+        this.writeBuffer = new ArrayBlockingQueue<>(WRITE_BUFFER_CAPACITY);
+        this.ticker = config.getTicker();
+        this.expirationWheel = new TimerWheel(ticker.read());
+        this.evictionSink = evictionSink;
+        this.evictedPlans = new ConcurrentLinkedQueue<>();
+        this.offHeapArena = offHeapArena;
+        this.removalDispatcher = removalDispatcher;
+    }
+
+    public CachedPlan get(String cacheKey) {
+        return planCache.get(cacheKey);
+    }
+
+    /**
+     * Monitor serializing plan generation for one key
+     */
+    public Object generationLock(String cacheKey) {
+        return generationLocks.computeIfAbsent(cacheKey, k -> new Object());
+    }
+
+    /**
+     * Store plan in the segment. The map is updated immediately; eviction
+     * catches up in the maintenance cycle that replays the write.
+     * @param expected if non-null, only store when this is still the cached plan
+     * @return whether the plan was stored
+     */
+    public boolean store(String cacheKey, CachedPlan plan, NormalizedQuery normalized,
+                         CachedPlan expected) {
+        CachedPlan current = planCache.get(cacheKey);
+        if (expected != null && current != expected) {
+            return false;
+        }
+
+        if (offHeapArena != null) {
+            plan.moveOffHeap(offHeapArena);
+        }
+        plan.setWeight(weigher.weigh(cacheKey, plan));
+
+        // Replacing a plan does not grow the cache, and the old plan stays
+        // visible until the map swaps it; its Tier 1 mappings carry over
+        if (current != null) {
+            plan.addQueryAliases(current.getQueryAliases());
+        }
+
+        long now = ticker.read();
+        plan.setLastAccessNanos(now);
+        long lifetimeMillis = plan.isPinned() ? Long.MAX_VALUE
+            : (current == null || current.isPinned())
+            ? expiry.expireAfterCreate(normalized, normalized.getStatementType(),
+                normalized.getReferencedTables(), plan.getGenerationCostNanos())
+            : expiry.expireAfterUpdate(normalized, normalized.getStatementType(),
+                normalized.getReferencedTables(), plan.getGenerationCostNanos(),
+                remainingMillis(current, now));
+        // A plan promoted from the victim tier keeps its original deadline
+        plan.setExpirationNanos(Math.min(plan.getExpirationNanos(), deadline(now, lifetimeMillis)));
+
+        // A plan larger than the segment's whole budget is served but never cached
+        if (!plan.isPinned() && plan.getWeight() > maximumWeightBytes) {
+            if (current != null && planCache.remove(cacheKey, current)) {
+                afterWrite(new WriteEvent(cacheKey, null, current));
+            }
+            statistics.recordOversizedRejection();
+            release(plan);
+            return false;
+        }
+
+        CachedPlan previous;
+        if (expected != null) {
+            if (!planCache.replace(cacheKey, expected, plan)) {
+                release(plan);
+                return false;
+            }
+            previous = expected;
+        } else {
+            previous = planCache.put(cacheKey, plan);
+            if (previous != null && previous != current) {
+                plan.addQueryAliases(previous.getQueryAliases());
+            }
+        }
+        afterWrite(new WriteEvent(cacheKey, plan, previous));
+        return true;
+    }
+
+    /**
+     * Remove a plan and its Tier 1 mappings
+     * @param cause reported to the removal listener
+     * @return whether the key was cached
+     */
+    public boolean invalidate(String cacheKey, RemovalCause cause) {
+        evictionLock.lock();
+        try {
+            CachedPlan removed = removeEntry(cacheKey, true);
+            discard(cacheKey, removed, cause);
+            return removed != null;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Expire every plan now, keeping it servable for the stale grace window
+     * @param cause reported for each plan when it is finally removed
+     */
+    public void expireAll(long now, RemovalCause cause) {
+        evictionLock.lock();
+        try {
+            for (Map.Entry<String, CachedPlan> entry : planCache.entrySet()) {
+                CachedPlan cached = entry.getValue();
+                if (cached.getExpirationNanos() - now > 0) {
+                    cached.setInvalidationCause(cause);
+                    cached.setExpirationNanos(now);
+                    // Pinned plans are regenerated eagerly rather than reclaimed
+                    if (!cached.isPinned()) {
+                        expirationWheel.schedule(entry.getKey(), reclaimNanos(cached));
+                    }
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Change this segment's share of the capacity. Growing takes effect
+     * immediately; after shrinking, maintenance evicts the excess in batches.
+     */
+    public void setCapacity(int maxEntries, long maximumWeightBytes) {
+        evictionLock.lock();
+        try {
+            applyCapacity(maxEntries, maximumWeightBytes);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Lower the general region's capacity to drop a fraction of the plans it
+     * holds now; the coldest go first, in maintenance batches. Pooled and
+     * pinned plans are kept.
+     */
+    public void shed(double fraction) {
+        evictionLock.lock();
+        try {
+            maintenance();
+            int pooledEntries = 0;
+            for (TypePool pool : typePools.values()) {
+                pooledEntries += pool.policy.size();
+            }
+            long entries = (long) ((planCache.size() - pinnedEntries - pooledEntries) * (1 - fraction));
+            long weight = (long) ((weightedSize - pooledWeightedSize) * (1 - fraction));
+            applyCapacity((int) Math.max(1, Math.min(maxEntries, entries)),
+                Math.max(1, Math.min(maximumWeightBytes, weight)));
+        } finally {
+            evictionLock.unlock();
+        }
+        demoteEvicted();
+    }
+
+    /**
+     * Switch to a new Expiry, moving every live plan's deadline by the
+     * change in TTL. Pinned and already expired plans keep theirs.
+     */
+    public void setExpiry(Expiry expiry, long deltaNanos) {
+        evictionLock.lock();
+        try {
+            this.expiry = expiry;
+            long now = ticker.read();
+            for (Map.Entry<String, CachedPlan> entry : planCache.entrySet()) {
+                CachedPlan cached = entry.getValue();
+                long remaining = cached.getExpirationNanos() - now;
+                if (cached.isPinned() || remaining <= 0) {
+                    continue;
+                }
+                long shifted = Math.max(0, Math.min(remaining + deltaNanos, MAXIMUM_LIFETIME_NANOS));
+                cached.setExpirationNanos(now + shifted);
+                if (planCache.get(entry.getKey()) == cached) {
+                    expirationWheel.schedule(entry.getKey(), reclaimNanos(cached));
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaximumWeightBytes() {
+        return maximumWeightBytes;
+    }
+
+    /**
+     * Buffer a cache hit for the eviction policy. Hits never block and may be
+     * dropped under contention; a full buffer triggers a drain.
+     */
+    public void recordRead(String cacheKey) {
+        if (readBuffer.offer(cacheKey) == ReadBuffer.FULL) {
+            scheduleDrain();
+            readBuffer.offer(cacheKey);
+        }
+    }
+
+    /**
+     * Run pending maintenance now: replay buffered hits and reclaim expired plans
+     * @return whether eviction stopped at the batch limit and more may be needed
+     */
+    public boolean cleanUp() {
+        boolean batchFull;
+        evictionLock.lock();
+        try {
+            batchFull = maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+        demoteEvicted();
+        return batchFull;
+    }
+
+    public void clear() {
+        evictionLock.lock();
+        try {
+            for (Map.Entry<String, CachedPlan> entry : planCache.entrySet()) {
+                discard(entry.getKey(), entry.getValue(), RemovalCause.EXPLICIT);
+            }
+            planCache.clear();
+            tenants.clear();
+            quotaOrder.clear();
+            splitOrder.clear();
+            for (TypePool pool : typePools.values()) {
+                pool.policy.clear();
+                pool.weightedSize = 0;
+            }
+            pooledWeightedSize = 0;
+            expirationWheel.clear();
+            adjustWeight(-weightedSize);
+            pinnedEntries = 0;
+            readBuffer.clear();
+            // Plans replaced or evicted before the clear have left the map too
+            WriteEvent event;
+            while ((event = writeBuffer.poll()) != null) {
+                discard(event.key, event.removed, RemovalCause.REPLACED);
+            }
+            Map.Entry<String, CachedPlan> evicted;
+            while ((evicted = evictedPlans.poll()) != null) {
+                release(evicted.getValue());
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public int size() {
+        return planCache.size();
+    }
+
+    public Set<Map.Entry<String, CachedPlan>> entrySet() {
+        return Collections.unmodifiableMap(planCache).entrySet();
+    }
+
+    /**
+     * Set the segment's limits and resize its tenant policies. Caller holds evictionLock.
+     */
+    private void applyCapacity(int maxEntries, long maximumWeightBytes) {
+        this.maxEntries = maxEntries;
+        this.maximumWeightBytes = maximumWeightBytes;
+        for (TenantShare share : tenants.values()) {
+            if (share.policyCapacity > maxEntries) {
+                share.policyCapacity = maxEntries;
+                share.policy.setMaximumSize(maxEntries);
+            }
+            // Usage of the segment is relative to its new limits
+            reorder(share);
+        }
+    }
+
+    /**
+     * Queue a map transition for maintenance. A full buffer makes the writer
+     * wait for the lock and drain it, which bounds how far the policy can lag.
+     */
+    private void afterWrite(WriteEvent event) {
+        while (!writeBuffer.offer(event)) {
+            cleanUp();
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Run maintenance if the lock is free. The holder re-checks the write
+     * buffer after unlocking, so writes queued meanwhile are not stranded.
+     */
+    private void scheduleDrain() {
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+            demoteEvicted();
+        } while (!writeBuffer.isEmpty());
+    }
+
+    /**
+     * Hand plans evicted by earlier maintenance to the next tier, outside
+     * the eviction lock since encoding them is comparatively slow
+     */
+    private void demoteEvicted() {
+        Map.Entry<String, CachedPlan> evicted;
+        while ((evicted = evictedPlans.poll()) != null) {
+            evictionSink.accept(evicted.getKey(), evicted.getValue());
+            release(evicted.getValue());
+        }
+    }
+
+    /**
+     * Maintenance cycle. Evicts at most EVICTION_BATCH_SIZE plans; a large
+     * excess left by shrinking the cache is worked off by later cycles.
+     * Caller holds evictionLock.
+     * @return whether the batch ran out, so the segment may still be over capacity
+     */
+    private boolean maintenance() {
+        long now = ticker.read();
+        readBuffer.drainTo(cacheKey -> onRead(cacheKey, now));
+        drainWriteBuffer(now);
+        expirationWheel.advance(now, this::expireEntry);
+        int budget = EVICTION_BATCH_SIZE;
+        int pooledEntries = 0;
+        for (TypePool pool : typePools.values()) {
+            while ((pool.policy.size() > pool.maxEntries || pool.weightedSize > pool.maximumWeightBytes)
+                    && budget > 0 && evictFrom(pool.policy)) {
+                // keep evicting until the pool fits its budget again
+                budget--;
+            }
+            pooledEntries += pool.policy.size();
+        }
+        while (isOverCapacity(pooledEntries) && budget > 0 && evictEntry()) {
+            // keep evicting until the segment fits its share again
+            budget--;
+        }
+        return budget == 0;
+    }
+
+    private boolean isOverCapacity(int pooledEntries) {
+        return planCache.size() - pinnedEntries - pooledEntries > maxEntries
+            || weightedSize - pooledWeightedSize > maximumWeightBytes;
+    }
+
+    /**
+     * Replay map transitions in queue order. Weight is adjusted by each
+     * transition's delta; the policy and wheel follow whatever plan is live
+     * now, so events replayed out of order still converge. A key whose plan
+     * was replaced while it stayed cached keeps its policy history, and the
+     * replacement counts as an access. Caller holds evictionLock.
+     */
+    private void drainWriteBuffer(long now) {
+        WriteEvent event;
+        while ((event = writeBuffer.poll()) != null) {
+            adjustUsage(event.added, weightOf(event.added));
+            adjustUsage(event.removed, -weightOf(event.removed));
+            pinnedEntries += pinnedCount(event.added) - pinnedCount(event.removed);
+            if (event.removed != null) {
+                // Without a new plan, the old one made way for an oversized replacement
+                RemovalCause cause = (event.added == null) ? RemovalCause.SIZE
+                    : (now - event.removed.getExpirationNanos() >= 0) ? expiredCause(event.removed)
+                    : RemovalCause.REPLACED;
+                discard(event.key, event.removed, cause);
+            }
+
+            // A key's tenant and statement type never change, so both plans share a policy
+            CachedPlan plan = (event.added != null) ? event.added : event.removed;
+            TypePool pool = poolFor(plan);
+            TenantShare share = (pool != null) ? null : shareFor(plan.getTenant());
+            EvictionPolicy policy = (pool != null) ? pool.policy : share.policy;
+            CachedPlan live = planCache.get(event.key);
+            if (live == null || live.isPinned()) {
+                policy.remove(event.key);
+                expirationWheel.deschedule(event.key);
+            } else if (live == event.added) {
+                policy.add(event.key, live);
+                expirationWheel.schedule(event.key, reclaimNanos(live));
+            } else if (event.added == null) {
+                // The key left the cache before the plan now live was stored
+                policy.remove(event.key);
+            }
+            if (share != null) {
+                growPolicy(share);
+                reorder(share);
+            }
+        }
+    }
+
+    /**
+     * Evict the entry chosen by the eviction policy of the tenant furthest
+     * over its quota. Caller holds evictionLock.
+     * @return false if there was nothing left to evict
+     */
+    private boolean evictEntry() {
+        TenantShare target = overQuotaTenant();
+        if (target == null) {
+            return false;
+        }
+        boolean evicted = evictFrom(target.policy);
+        reorder(target);
+        return evicted;
+    }
+
+    /**
+     * The tenant using the largest fraction of its quota. Tenants without a
+     * configured quota split the segment evenly between the tenants holding
+     * plans, so their usage is their share of the segment times that count.
+     * Caller holds evictionLock.
+     * @return the tenant, or null if no tenant holds plans
+     */
+    private TenantShare overQuotaTenant() {
+        TenantShare quotaTenant = quotaOrder.isEmpty() ? null : quotaOrder.last();
+        TenantShare splitTenant = splitOrder.isEmpty() ? null : splitOrder.last();
+        if (quotaTenant == null || splitTenant == null) {
+            return (quotaTenant != null) ? quotaTenant : splitTenant;
+        }
+        int activeTenants = quotaOrder.size() + splitOrder.size();
+        return (splitTenant.rank * activeTenants > quotaTenant.rank) ? splitTenant : quotaTenant;
+    }
+
+    /**
+     * Evict the victim chosen by one policy. Caller holds evictionLock.
+     * @return false if the policy had nothing left to evict
+     */
+    private boolean evictFrom(EvictionPolicy policy) {
+        String victimKey = policy.evict();
+        if (victimKey == null) {
+            return false;
+        }
+        CachedPlan victim = removeEntry(victimKey, true);
+        statistics.recordEviction();
+        if (victim != null) {
+            tenantStatistics.apply(victim.getTenant()).recordEviction();
+            notifyRemoval(victimKey, victim, RemovalCause.SIZE);
+            if (evictionSink != null) {
+                // Freed once the next tier has encoded it
+                evictedPlans.add(Map.entry(victimKey, victim));
+            } else {
+                release(victim);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Eviction policy tracking a plan: its statement type's pool if one is
+     * configured, otherwise its tenant's. Caller holds evictionLock.
+     */
+    private EvictionPolicy policyFor(CachedPlan plan) {
+        TypePool pool = poolFor(plan);
+        return (pool != null) ? pool.policy : shareFor(plan.getTenant()).policy;
+    }
+
+    private TypePool poolFor(CachedPlan plan) {
+        StatementType type = plan.getStatementType();
+        return (type == null) ? null : typePools.get(type);
+    }
+
+    /**
+     * Add a plan's weight delta to the segment and to its pool or tenant.
+     * Caller holds evictionLock.
+     */
+    private void adjustUsage(CachedPlan plan, long delta) {
+        if (plan == null) {
+            return;
+        }
+        adjustWeight(delta);
+        TypePool pool = poolFor(plan);
+        if (pool != null) {
+            pool.weightedSize += delta;
+            pooledWeightedSize += delta;
+        } else {
+            shareFor(plan.getTenant()).weightedSize += delta;
+        }
+    }
+
+    /**
+     * Re-rank a tenant after its entries or bytes changed, by the fraction of
+     * its quota it uses, entries or bytes whichever is higher. Tenants without
+     * a quota are ranked by their use of the whole segment. Caller holds evictionLock.
+     */
+    private void reorder(TenantShare share) {
+        // Removed under the old rank, which the set is ordered by
+        TreeSet<TenantShare> order = (share.quotaEntries == 0) ? splitOrder : quotaOrder;
+        order.remove(share);
+        if (share.policy.size() == 0) {
+            return;
+        }
+        long quotaEntries = (share.quotaEntries == 0) ? Math.max(1, maxEntries) : share.quotaEntries;
+        long quotaWeight = (share.quotaEntries == 0) ? Math.max(1, maximumWeightBytes) : share.quotaWeightBytes;
+        share.rank = Math.max((double) share.policy.size() / quotaEntries,
+            (double) share.weightedSize / quotaWeight);
+        order.add(share);
+    }
+
+    /**
+     * Double a tenant's policy once the tenant outgrows it, up to the
+     * segment's capacity. Caller holds evictionLock.
+     */
+    private void growPolicy(TenantShare share) {
+        if (share.policy.size() > share.policyCapacity && share.policyCapacity < maxEntries) {
+            share.policyCapacity = (int) Math.min(maxEntries, 2L * share.policyCapacity);
+            share.policy.setMaximumSize(share.policyCapacity);
+        }
+    }
+
+    /**
+     * Eviction state for a tenant, created on its first plan. Its policy is
+     * sized for the tenant's quota rather than the whole segment, so that
+     * many small tenants do not each carry segment-sized structures such as
+     * a W-TinyLFU sketch. Caller holds evictionLock.
+     */
+    private TenantShare shareFor(String tenant) {
+        TenantShare share = tenants.get(tenant);
+        if (share == null) {
+            CapacityQuota quota = tenantQuotas.get(tenant);
+            int quotaEntries = (quota == null) ? 0 : Math.max(1, quota.getMaxEntries() / segmentCount);
+            long quotaWeight = (quota == null) ? 0 : Math.max(1, quota.getMaximumWeightBytes() / segmentCount);
+            int capacity = Math.max(1, Math.min(maxEntries, Math.max(quotaEntries, INITIAL_TENANT_POLICY_CAPACITY)));
+            share = new TenantShare(tenant, policyFactory.create(capacity, statistics),
+                quotaEntries, quotaWeight, capacity);
+            tenants.put(tenant, share);
+        }
+        return share;
+    }
+
+    /**
+     * Remove a plan and all of its bookkeeping. Caller holds evictionLock.
+     * @param dropAliases whether to also remove the plan's Tier 1 mappings
+     * @return the removed plan, or null if the key was not cached
+     */
+    private CachedPlan removeEntry(String cacheKey, boolean dropAliases) {
+        CachedPlan removed = planCache.remove(cacheKey);
+        if (removed != null) {
+            untrack(cacheKey, removed);
+            if (dropAliases) {
+                for (QueryFingerprint sqlQuery : removed.getQueryAliases()) {
+                    queryToKeyCache.remove(sqlQuery, cacheKey);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Drop a plan's policy, timer and weight bookkeeping. Caller holds evictionLock.
+     */
+    private void untrack(String cacheKey, CachedPlan plan) {
+        policyFor(plan).remove(cacheKey);
+        adjustUsage(plan, -weightOf(plan));
+        if (poolFor(plan) == null) {
+            reorder(shareFor(plan.getTenant()));
+        }
+        expirationWheel.deschedule(cacheKey);
+        pinnedEntries -= pinnedCount(plan);
+    }
+
+    /**
+     * Weight a plan adds to the segment's budget; pinned plans have their own
+     */
+    private static long weightOf(CachedPlan plan) {
+        return (plan == null || plan.isPinned()) ? 0 : plan.getWeight();
+    }
+
+    private static int pinnedCount(CachedPlan plan) {
+        return (plan != null && plan.isPinned()) ? 1 : 0;
+    }
+
+    /**
+     * Track the estimated retained size. Caller holds evictionLock.
+     */
+    private void adjustWeight(long delta) {
+        weightedSize += delta;
+        statistics.adjustWeightedSize(delta);
+    }
+
+    /**
+     * Timer wheel callback for a plan whose TTL has run out
+     */
+    private void expireEntry(String cacheKey) {
+        CachedPlan removed = removeEntry(cacheKey, true);
+        if (removed != null) {
+            discard(cacheKey, removed, expiredCause(removed));
+            statistics.recordExpiration();
+        }
+    }
+
+    /**
+     * Cause to report for a plan removed once its deadline passed: SCHEMA if
+     * a schema change cut its lifetime short, else EXPIRED
+     */
+    private static RemovalCause expiredCause(CachedPlan plan) {
+        RemovalCause cause = plan.getInvalidationCause();
+        return (cause != null) ? cause : RemovalCause.EXPIRED;
+    }
+
+    /**
+     * Report a plan that has left planCache for good and free its storage
+     */
+    private void discard(String cacheKey, CachedPlan plan, RemovalCause cause) {
+        if (plan != null) {
+            notifyRemoval(cacheKey, plan, cause);
+            release(plan);
+        }
+    }
+
+    private void notifyRemoval(String cacheKey, CachedPlan plan, RemovalCause cause) {
+        if (removalDispatcher != null) {
+            removalDispatcher.notify(cacheKey, plan, cause);
+        }
+    }
+
+    /**
+     * Free a plan's off-heap chunk once it is out of planCache. Readers that
+     * fetched the plan earlier see the chunk's reuse and treat it as a miss.
+     */
+    private void release(CachedPlan plan) {
+        if (plan != null && offHeapArena != null) {
+            plan.releaseOffHeap(offHeapArena);
+        }
+    }
+
+    /**
+     * Replay one buffered hit: per-entry counters, eviction order and
+     * read expiry. Caller holds evictionLock.
+     */
+    private void onRead(String cacheKey, long now) {
+        CachedPlan cached = planCache.get(cacheKey);
+        if (cached == null) {
+            return;
+        }
+        cached.recordAccess(now);
+        policyFor(cached).recordAccess(cacheKey);
+        applyReadExpiry(cacheKey, cached, now);
+    }
+
+    /**
+     * Let the Expiry extend or shorten a plan's lifetime after a hit.
+     * Caller holds evictionLock.
+     */
+    private void applyReadExpiry(String cacheKey, CachedPlan cached, long now) {
+        if (cached.getQuery() == null || cached.isPinned()) {
+            return;
+        }
+        // Stale plans are only served until their refresh lands, never extended
+        if (now - cached.getExpirationNanos() >= 0) {
+            return;
+        }
+        long remaining = remainingMillis(cached, now);
+        long lifetimeMillis = expiry.expireAfterRead(cached.getQuery(), cached.getStatementType(),
+            cached.getReferencedTables(), cached.getGenerationCostNanos(), remaining);
+        if (lifetimeMillis != remaining) {
+            cached.setExpirationNanos(deadline(now, lifetimeMillis));
+            expirationWheel.schedule(cacheKey, reclaimNanos(cached));
+        }
+    }
+
+    /**
+     * When the timer wheel should drop a plan: at expiry, or at the end of
+     * its grace window when stale plans are served
+     */
+    private long reclaimNanos(CachedPlan plan) {
+        return plan.getExpirationNanos() + staleGraceNanos;
+    }
+
+    private static long remainingMillis(CachedPlan cached, long now) {
+        return TimeUnit.NANOSECONDS.toMillis(cached.getExpirationNanos() - now);
+    }
+
+    /**
+     * Expiration deadline for a lifetime. Lifetimes are capped so deadlines
+     * stay comparable with (now - deadline) on the nanoTime scale.
+     */
+    private static long deadline(long now, long lifetimeMillis) {
+        long lifetimeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lifetimeMillis));
+        return now + Math.min(lifetimeNanos, MAXIMUM_LIFETIME_NANOS);
+    }
+}
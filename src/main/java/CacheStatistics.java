@@ -1,29 +1,227 @@
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class CacheStatistics {
-    private final AtomicLong hits = new AtomicLong(0);
-    private final AtomicLong misses = new AtomicLong(0);
-    private final AtomicLong evictions = new AtomicLong(0);
-    private final AtomicLong invalidations = new AtomicLong(0);
-    
-    public void recordHit() { hits.incrementAndGet(); }
-    public void recordMiss() { misses.incrementAndGet(); }
-    public void recordEviction() { evictions.incrementAndGet(); }
-    public void recordInvalidation() { invalidations.incrementAndGet(); }
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder staleServes = new LongAdder();
+    private final LongAdder pressureSheds = new LongAdder();
+    private final LongAdder victimHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder diskDroppedWrites = new LongAdder();
+    private final LongAdder diskEvictions = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder droppedNotifications = new LongAdder();
+    private final LongAdder tier1Hits = new LongAdder();
+    private final LongAdder tier1Misses = new LongAdder();
+    private final LongAdder tier1Evictions = new LongAdder();
+    private final LongAdder tier1Collisions = new LongAdder();
+    private final LongAdder admissions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder oversizedRejections = new LongAdder();
+    private final AtomicLong weightedSize = new AtomicLong(0);
+    private final AtomicLong offHeapReservedBytes = new AtomicLong(0);
+    private final AtomicLong offHeapUsedBytes = new AtomicLong(0);
+    private final LongAdder plansGenerated = new LongAdder();
+    private final LongAdder generationNanos = new LongAdder();
+    // Hits and misses by statement type, indexed by ordinal
+    private final LongAdder[] typeHits = newAdders(StatementType.values().length);
+    private final LongAdder[] typeMisses = newAdders(StatementType.values().length);
+    // Set when the cache samples lookups for a miss ratio curve
+    private volatile MissRatioEstimator missRatioEstimator;
+    
+    public void recordHit() { hits.increment(); }
+    public void recordMiss() { misses.increment(); }
+    
+    /**
+     * Record a hit, also counted for the statement type if known
+     */
+    public void recordHit(StatementType type) {
+        hits.increment();
+        if (type != null) {
+            typeHits[type.ordinal()].increment();
+        }
+    }
+    
+    public void recordMiss(StatementType type) {
+        misses.increment();
+        if (type != null) {
+            typeMisses[type.ordinal()].increment();
+        }
+    }
+    public void recordEviction() { evictions.increment(); }
+    public void recordInvalidation() { invalidations.increment(); }
+    public void recordExpiration() { expirations.increment(); }
+    public void recordRefresh() { refreshes.increment(); }
+    public void recordRefreshFailure() { refreshFailures.increment(); }
+    public void recordStaleServe() { staleServes.increment(); }
+    public void recordPressureShed() { pressureSheds.increment(); }
+    public void recordVictimHit() { victimHits.increment(); }
+    public void recordDiskHit() { diskHits.increment(); }
+    public void recordDiskDroppedWrite() { diskDroppedWrites.increment(); }
+    public void recordDiskEviction() { diskEvictions.increment(); }
+    public void recordNegativeHit() { negativeHits.increment(); }
+    public void recordDroppedNotification() { droppedNotifications.increment(); }
+    public void recordTier1Hit() { tier1Hits.increment(); }
+    public void recordTier1Miss() { tier1Misses.increment(); }
+    public void recordTier1Eviction() { tier1Evictions.increment(); }
+    public void recordTier1Collision() { tier1Collisions.increment(); }
+    public void recordAdmission() { admissions.increment(); }
+    public void recordRejection() { rejections.increment(); }
+    public void recordOversizedRejection() { oversizedRejections.increment(); }
+    public void adjustWeightedSize(long deltaBytes) { weightedSize.addAndGet(deltaBytes); }
+    public void adjustOffHeapReservedBytes(long deltaBytes) { offHeapReservedBytes.addAndGet(deltaBytes); }
+    public void adjustOffHeapUsedBytes(long deltaBytes) { offHeapUsedBytes.addAndGet(deltaBytes); }
+    public void recordGenerationCost(long nanos) {
+        plansGenerated.increment();
+        generationNanos.add(nanos);
+    }
     public void recordFullClear() { 
-        hits.set(0);
-        misses.set(0);
+        hits.reset();
+        misses.reset();
+        for (int i = 0; i < typeHits.length; i++) {
+            typeHits[i].reset();
+            typeMisses[i].reset();
+        }
     }
     
     public double getHitRatio() {
-        long totalRequests = hits.get() + misses.get();
-        return totalRequests == 0 ? 0.0 : (double) hits.get() / totalRequests;
+        long totalRequests = hits.sum() + misses.sum();
+        return totalRequests == 0 ? 0.0 : (double) hits.sum() / totalRequests;
+    }
+    
+    public long getTotalHits() { return hits.sum(); }
+    public long getTotalHits(StatementType type) { return typeHits[type.ordinal()].sum(); }
+    public long getTotalMisses(StatementType type) { return typeMisses[type.ordinal()].sum(); }
+    
+    /**
+     * Hit ratio of one statement type, for sizing its pool
+     */
+    public double getHitRatio(StatementType type) {
+        long typeHitCount = typeHits[type.ordinal()].sum();
+        long totalRequests = typeHitCount + typeMisses[type.ordinal()].sum();
+        return totalRequests == 0 ? 0.0 : (double) typeHitCount / totalRequests;
+    }
+    public long getTotalMisses() { return misses.sum(); }
+    public long getTotalEvictions() { return evictions.sum(); }
+    public long getTotalInvalidations() { return invalidations.sum(); }
+    public long getTotalExpirations() { return expirations.sum(); }
+    public long getTotalRefreshes() { return refreshes.sum(); }
+    public long getTotalRefreshFailures() { return refreshFailures.sum(); }
+    public long getTotalStaleServes() { return staleServes.sum(); }
+    public long getTotalPressureSheds() { return pressureSheds.sum(); }
+    /**
+     * Misses answered by promoting a plan from the victim tier; these are
+     * also counted as misses, since the main cache did not have the plan
+     */
+    public long getTotalVictimHits() { return victimHits.sum(); }
+    /**
+     * Misses answered from the disk tier, likewise also counted as misses
+     */
+    public long getTotalDiskHits() { return diskHits.sum(); }
+    /**
+     * Evicted plans the disk tier did not store, because its file was full
+     * or being compacted. A count that keeps rising while disk hits do not
+     * means the tier is not taking plans.
+     */
+    public long getTotalDiskDroppedWrites() { return diskDroppedWrites.sum(); }
+    /**
+     * Live plans the disk tier evicted, oldest first, to make room
+     */
+    public long getTotalDiskEvictions() { return diskEvictions.sum(); }
+    /**
+     * Statements rejected from the negative cache without being parsed
+     */
+    public long getTotalNegativeHits() { return negativeHits.sum(); }
+    /**
+     * Removal notifications dropped because the listener fell behind
+     */
+    public long getTotalDroppedNotifications() { return droppedNotifications.sum(); }
+    /**
+     * Raw queries found in Tier 1, which skip parsing. A hit whose plan
+     * turned out to be gone or stale still counts here.
+     */
+    public long getTotalTier1Hits() { return tier1Hits.sum(); }
+    public long getTotalTier1Misses() { return tier1Misses.sum(); }
+    public long getTotalTier1Evictions() { return tier1Evictions.sum(); }
+    /**
+     * Tier 1 fingerprint collisions caught in verification mode, also
+     * counted as Tier 1 misses
+     */
+    public long getTotalTier1Collisions() { return tier1Collisions.sum(); }
+    
+    /**
+     * Estimated miss ratio at candidate cache sizes
+     * @return the current curve, or null if the cache does not estimate one
+     */
+    public MissRatioCurve getMissRatioCurve() {
+        MissRatioEstimator estimator = missRatioEstimator;
+        return (estimator == null) ? null : estimator.snapshot();
+    }
+    
+    void setMissRatioEstimator(MissRatioEstimator missRatioEstimator) {
+        this.missRatioEstimator = missRatioEstimator;
+    }
+    public long getTotalAdmissions() { return admissions.sum(); }
+    public long getTotalRejections() { return rejections.sum(); }
+    
+    /**
+     * Plans served but not cached because they exceed a segment's whole
+     * byte budget; not counted as admission rejections
+     */
+    public long getTotalOversizedRejections() { return oversizedRejections.sum(); }
+    
+    /**
+     * Estimated bytes currently retained by cached plans
+     */
+    public long getWeightedSize() { return weightedSize.get(); }
+    
+    /**
+     * Direct memory reserved for off-heap plans
+     */
+    public long getOffHeapBytes() { return offHeapReservedBytes.get(); }
+    
+    /**
+     * Encoded plan bytes held in off-heap storage
+     */
+    public long getOffHeapUsedBytes() { return offHeapUsedBytes.get(); }
+    
+    /**
+     * Share of reserved off-heap memory not holding plan bytes: chunk
+     * rounding, free chunks and slab tails
+     */
+    public double getOffHeapFragmentation() {
+        long reserved = offHeapReservedBytes.get();
+        return reserved == 0 ? 0.0 : 1.0 - (double) offHeapUsedBytes.get() / reserved;
+    }
+    public long getTotalPlansGenerated() { return plansGenerated.sum(); }
+    public long getTotalGenerationNanos() { return generationNanos.sum(); }
+    
+    public double getAverageGenerationMicros() {
+        long generated = plansGenerated.sum();
+        return generated == 0 ? 0.0 : generationNanos.sum() / 1000.0 / generated;
     }
     
-    public long getTotalHits() { return hits.get(); }
-    public long getTotalMisses() { return misses.get(); }
-    public long getTotalEvictions() { return evictions.get(); }
-    public long getTotalInvalidations() { return invalidations.get(); }
+    /**
+     * Fraction of admission decisions that rejected the incoming plan
+     */
+    public double getRejectionRatio() {
+        long decisions = admissions.sum() + rejections.sum();
+        return decisions == 0 ? 0.0 : (double) rejections.sum() / decisions;
+    }
+    
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
     
     @Override
     public String toString() {
@@ -33,9 +231,30 @@ public class CacheStatistics {
             "  Misses: %d\n" +
             "  Hit Ratio: %.2f%%\n" +
             "  Evictions: %d\n" +
-            "  Invalidations: %d",
-            hits.get(), misses.get(), getHitRatio() * 100,
-            evictions.get(), invalidations.get()
+            "  Invalidations: %d\n" +
+            "  Expirations: %d\n" +
+            "  Refreshes: %d\n" +
+            "  Stale serves: %d\n" +
+            "  Heap pressure sheds: %d\n" +
+            "  Victim hits: %d\n" +
+            "  Disk hits: %d\n" +
+            "  Disk writes: %d dropped, %d evicted\n" +
+            "  Negative hits: %d\n" +
+            "  Tier 1: %d hits, %d misses, %d evictions, %d collisions\n" +
+            "  Admissions: %d\n" +
+            "  Rejections: %d\n" +
+            "  Oversized rejections: %d\n" +
+            "  Weighted Size: %d bytes\n" +
+            "  Off-heap: %d of %d bytes used\n" +
+            "  Avg Generation Cost: %.1f us",
+            hits.sum(), misses.sum(), getHitRatio() * 100,
+            evictions.sum(), invalidations.sum(), expirations.sum(), refreshes.sum(), staleServes.sum(),
+            pressureSheds.sum(), victimHits.sum(), diskHits.sum(),
+            diskDroppedWrites.sum(), diskEvictions.sum(), negativeHits.sum(),
+            tier1Hits.sum(), tier1Misses.sum(), tier1Evictions.sum(), tier1Collisions.sum(),
+            admissions.sum(), rejections.sum(), oversizedRejections.sum(),
+            weightedSize.get(), offHeapUsedBytes.get(), offHeapReservedBytes.get(),
+            getAverageGenerationMicros()
         );
     }
 }
\ No newline at end of file
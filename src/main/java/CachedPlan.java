@@ -1,32 +1,193 @@
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import com.fasterxml.jackson.databind.JsonNode;
 public class CachedPlan {
-    private final JsonNode plan;
+    // On-heap plan tree, or null once the plan was moved to offHeapPlan
+    private JsonNode plan;
+    private OffHeapArena.Allocation offHeapPlan;
     private final List<ParameterMetadata> parameterMetadata;
     private final String schemaVersion;
     private final long creationTime;
-    private long lastAccessTime;
+    // Ticker reading when the plan was generated
+    private long createdNanos;
+    private final long generationCostNanos;
+    // Normalized query the plan was generated from (null if unknown)
+    private final NormalizedQuery query;
+    // Deadline on the cache's Ticker scale, set by the cache's Expiry
+    private volatile long expirationNanos = Long.MAX_VALUE;
+    // Ticker reading after which a hit triggers a background refresh
+    private long refreshNanos = Long.MAX_VALUE;
+    // Ticker reading of the last replayed hit, or of when the plan was stored
+    private long lastAccessNanos;
     private long hitCount;
+    private long weight;
+    // Why the plan was invalidated ahead of its TTL, reported once it is removed
+    private volatile RemovalCause invalidationCause;
+    // Pinned plans bypass eviction and TTL; fixed before the plan is published
+    private boolean pinned;
+    // Tenant whose quota the plan counts against
+    private String tenant = QueryPlanCacheManager.DEFAULT_TENANT;
+    // Fingerprints of raw queries whose Tier 1 mapping points at this plan
+    private final Set<QueryFingerprint> queryAliases = ConcurrentHashMap.newKeySet();
     
     public CachedPlan(JsonNode plan, List<ParameterMetadata> metadata,
                       String schemaVersion, long creationTime) {
+        this(plan, metadata, schemaVersion, creationTime, 0);
+    }
+    
+    /**
+     * @param generationCostNanos measured time PlanGenerator spent building this plan
+     */
+    public CachedPlan(JsonNode plan, List<ParameterMetadata> metadata,
+                      String schemaVersion, long creationTime, long generationCostNanos) {
+        this(plan, metadata, null, schemaVersion, creationTime, generationCostNanos);
+    }
+    
+    public CachedPlan(JsonNode plan, NormalizedQuery query,
+                      String schemaVersion, long creationTime, long generationCostNanos) {
+        this(plan, query.getParameterMetadata(), query, schemaVersion, creationTime, generationCostNanos);
+    }
+    
+    private CachedPlan(JsonNode plan, List<ParameterMetadata> metadata, NormalizedQuery query,
+                       String schemaVersion, long creationTime, long generationCostNanos) {
         this.plan = plan;
         this.parameterMetadata = metadata;
+        this.query = query;
         this.schemaVersion = schemaVersion;
         this.creationTime = creationTime;
-        this.lastAccessTime = creationTime;
+        this.generationCostNanos = generationCostNanos;
         this.hitCount = 0;
     }
     
-    public void recordAccess() {
-        this.lastAccessTime = System.currentTimeMillis();
+    /**
+     * Count a replayed hit. Called only by segment maintenance under its
+     * eviction lock, so the hit path never writes to the shared plan.
+     */
+    public void recordAccess(long now) {
+        this.lastAccessNanos = now;
         this.hitCount++;
     }
     
-    public JsonNode getPlan() { return plan; }
+    /**
+     * The plan tree, decoded from off-heap storage if the plan lives there
+     * @return null only if the off-heap storage was reused after the plan
+     *         was removed from the cache
+     */
+    public JsonNode getPlan() {
+        OffHeapArena.Allocation allocation = offHeapPlan;
+        return (allocation != null) ? allocation.read() : plan;
+    }
+    
+    public boolean isOffHeap() { return offHeapPlan != null; }
+    
+    /**
+     * Direct memory reserved for the plan, 0 if it is on-heap
+     */
+    public long getOffHeapBytes() {
+        OffHeapArena.Allocation allocation = offHeapPlan;
+        return (allocation != null) ? allocation.getChunkSize() : 0;
+    }
     public List<ParameterMetadata> getParameterMetadata() { return parameterMetadata; }
     public String getSchemaVersion() { return schemaVersion; }
     public long getCreationTime() { return creationTime; }
-    public long getLastAccessTime() { return lastAccessTime; }
+    public long getCreatedNanos() { return createdNanos; }
+    public long getGenerationCostNanos() { return generationCostNanos; }
+    public NormalizedQuery getQuery() { return query; }
+    public long getExpirationNanos() { return expirationNanos; }
+    public long getRefreshNanos() { return refreshNanos; }
+    
+    public StatementType getStatementType() {
+        return query == null ? null : query.getStatementType();
+    }
+    
+    public Set<String> getReferencedTables() {
+        return query == null ? Collections.emptySet() : query.getReferencedTables();
+    }
+    
+    /**
+     * Reuse deadline, assigned by the cache from its Expiry
+     */
+    void setExpirationNanos(long expirationNanos) { this.expirationNanos = expirationNanos; }
+    
+    /**
+     * Refresh-ahead threshold, assigned before the plan is published
+     */
+    void setRefreshNanos(long refreshNanos) { this.refreshNanos = refreshNanos; }
+    
+    void setCreatedNanos(long createdNanos) { this.createdNanos = createdNanos; }
+    void setLastAccessNanos(long lastAccessNanos) { this.lastAccessNanos = lastAccessNanos; }
+    public long getLastAccessNanos() { return lastAccessNanos; }
     public long getHitCount() { return hitCount; }
+    public long getWeight() { return weight; }
+    public boolean isPinned() { return pinned; }
+    public String getTenant() { return tenant; }
+    public Set<QueryFingerprint> getQueryAliases() { return queryAliases; }
+    
+    /**
+     * Cause to report instead of EXPIRED once the plan is removed, or null
+     * if it simply ran out its TTL
+     */
+    public RemovalCause getInvalidationCause() { return invalidationCause; }
+    void setInvalidationCause(RemovalCause invalidationCause) { this.invalidationCause = invalidationCause; }
+    
+    public void addQueryAlias(QueryFingerprint sqlQuery) { queryAliases.add(sqlQuery); }
+    public void addQueryAliases(Set<QueryFingerprint> sqlQueries) { queryAliases.addAll(sqlQueries); }
+    
+    /**
+     * Forget a raw-query mapping that Tier 1 evicted
+     */
+    void removeQueryAlias(QueryFingerprint sqlQuery) { queryAliases.remove(sqlQuery); }
+    
+    /**
+     * Estimated retained bytes, assigned once by the cache when the plan is stored
+     */
+    void setWeight(long weight) { this.weight = weight; }
+    
+    void setPinned(boolean pinned) { this.pinned = pinned; }
+    
+    void setTenant(String tenant) { this.tenant = tenant; }
+    
+    /**
+     * Encode the plan tree into the arena and drop the tree, before the plan
+     * is published. Plans too large for a slab stay on-heap.
+     */
+    void moveOffHeap(OffHeapArena arena) {
+        if (plan == null) {
+            return;
+        }
+        byte[] encoded = PlanCodec.encode(plan);
+        OffHeapArena.Allocation allocation = (encoded == null) ? null : arena.allocate(encoded);
+        if (allocation != null) {
+            offHeapPlan = allocation;
+            plan = null;
+        }
+    }
+    
+    /**
+     * Free the off-heap storage once the plan has left the cache
+     */
+    void releaseOffHeap(OffHeapArena arena) {
+        if (offHeapPlan != null) {
+            arena.free(offHeapPlan);
+        }
+    }
+    
+    /**
+     * Copy of this plan with a different pinned state, for swapping into the
+     * cache when a pattern is pinned or unpinned
+     */
+    CachedPlan withPinned(boolean pinned) {
+        CachedPlan copy = new CachedPlan(getPlan(), parameterMetadata, query, schemaVersion,
+            creationTime, generationCostNanos);
+        copy.refreshNanos = refreshNanos;
+        copy.createdNanos = createdNanos;
+        copy.lastAccessNanos = lastAccessNanos;
+        copy.hitCount = hitCount;
+        copy.pinned = pinned;
+        copy.tenant = tenant;
+        copy.addQueryAliases(queryAliases);
+        return copy;
+    }
 }
\ No newline at end of file
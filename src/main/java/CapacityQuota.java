@@ -0,0 +1,22 @@
+/**
+ * Entry and byte budget for one part of the plan cache: a tenant's quota,
+ * or the pool reserved for one statement type.
+ */
+public class CapacityQuota {
+    private final int maxEntries;
+    private final long maximumWeightBytes;
+
+    public CapacityQuota(int maxEntries, long maximumWeightBytes) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        if (maximumWeightBytes <= 0) {
+            throw new IllegalArgumentException("maximumWeightBytes must be positive: " + maximumWeightBytes);
+        }
+        this.maxEntries = maxEntries;
+        this.maximumWeightBytes = maximumWeightBytes;
+    }
+
+    public int getMaxEntries() { return maxEntries; }
+    public long getMaximumWeightBytes() { return maximumWeightBytes; }
+}
@@ -0,0 +1,107 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CLOCK (second chance): keys sit on a circular list with a reference bit.
+ * A hit only sets the bit; eviction sweeps the hand past referenced keys,
+ * clearing their bits, and evicts the first unreferenced one.
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    private static final class Node {
+        final String key;
+        boolean referenced;
+        Node prev;
+        Node next;
+
+        Node(String key) {
+            this.key = key;
+        }
+    }
+
+    private final Map<String, Node> nodes;
+    private final CacheStatistics statistics;
+    private Node hand;
+
+    public ClockPolicy(int maxEntries, CacheStatistics statistics) {
+        this.nodes = new HashMap<>();
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void add(String key, CachedPlan plan) {
+        Node node = nodes.get(key);
+        if (node != null) {
+            node.referenced = true;
+            return;
+        }
+        node = new Node(key);
+        nodes.put(key, node);
+        // New keys go just behind the hand so they are examined last
+        if (hand == null) {
+            node.prev = node;
+            node.next = node;
+            hand = node;
+        } else {
+            node.next = hand;
+            node.prev = hand.prev;
+            hand.prev.next = node;
+            hand.prev = node;
+        }
+        statistics.recordAdmission();
+    }
+
+    @Override
+    public void recordAccess(String key) {
+        Node node = nodes.get(key);
+        if (node != null) {
+            node.referenced = true;
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        Node node = nodes.remove(key);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    @Override
+    public String evict() {
+        if (hand == null) {
+            return null;
+        }
+        while (hand.referenced) {
+            hand.referenced = false;
+            hand = hand.next;
+        }
+        Node victim = hand;
+        nodes.remove(victim.key);
+        unlink(victim);
+        return victim.key;
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        hand = null;
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    private void unlink(Node node) {
+        if (node.next == node) {
+            hand = null;
+            return;
+        }
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        if (hand == node) {
+            hand = node.next;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ticker backed by a daemon thread that samples System.nanoTime() every
+ * millisecond. The hot path then pays a volatile read instead of a clock
+ * call for every lookup; TTLs are in milliseconds, so the lag does not
+ * matter. One thread serves every cache in the JVM and is started on
+ * first use.
+ */
+public final class CoarseTicker implements Ticker {
+
+    static final CoarseTicker INSTANCE = new CoarseTicker();
+
+    private static final long RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private volatile long nanos;
+
+    private CoarseTicker() {
+        this.nanos = System.nanoTime();
+        Thread updater = new Thread(this::run, "query-plan-cache-ticker");
+        updater.setDaemon(true);
+        updater.start();
+    }
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+
+    private void run() {
+        while (true) {
+            LockSupport.parkNanos(RESOLUTION_NANOS);
+            nanos = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Walks the JsonNode plan, the parameter metadata and the key strings and
+ * adds up shallow sizes for a 64-bit JVM with compressed oops. The numbers are
+ * estimates, not measurements: they only need to rank a 12-way join CTE plan
+ * correctly against a point lookup.
+ */
+public class DefaultPlanWeigher implements PlanWeigher {
+
+    private static final int OBJECT_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int ARRAY_HEADER = 16;
+    // String object + backing byte[] header (compact Latin-1 strings)
+    private static final int STRING_OVERHEAD = 24 + ARRAY_HEADER;
+    // LinkedHashMap.Entry inside ObjectNode
+    private static final int MAP_ENTRY = 40;
+    // CachedPlan fields plus the ConcurrentHashMap node and policy node holding it
+    private static final int ENTRY_OVERHEAD = 48 + 32 + 40;
+
+    @Override
+    public long weigh(String cacheKey, CachedPlan plan) {
+        long size = ENTRY_OVERHEAD;
+        size += sizeOf(cacheKey);
+        size += sizeOf(plan.getSchemaVersion());
+        // Off-heap plans are charged for their chunk instead of a decoded tree
+        size += plan.isOffHeap() ? plan.getOffHeapBytes() : sizeOf(plan.getPlan());
+        size += sizeOf(plan.getParameterMetadata());
+        if (plan.getQuery() != null) {
+            // NormalizedQuery with its pattern, first-seen parameters and table set
+            size += OBJECT_HEADER + 24 + sizeOf(plan.getQuery().getPattern());
+            size += 24 + align(ARRAY_HEADER + REFERENCE * plan.getQuery().getParameters().size());
+            for (Object parameter : plan.getQuery().getParameters()) {
+                size += sizeOfValue(parameter);
+            }
+            for (String table : plan.getReferencedTables()) {
+                size += MAP_ENTRY + sizeOf(table);
+            }
+        }
+        return size;
+    }
+
+    static long sizeOf(String s) {
+        return s == null ? 0 : align(STRING_OVERHEAD + s.length());
+    }
+
+    static long sizeOf(JsonNode node) {
+        if (node == null) {
+            return 0;
+        }
+        if (node.isObject()) {
+            // ObjectNode + LinkedHashMap + bucket table
+            long size = OBJECT_HEADER + 56 + align(ARRAY_HEADER + REFERENCE * tableSize(node.size()));
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                size += MAP_ENTRY + sizeOf(field.getKey()) + sizeOf(field.getValue());
+            }
+            return size;
+        }
+        if (node.isArray()) {
+            // ArrayNode + ArrayList + element array
+            long size = OBJECT_HEADER + 24 + align(ARRAY_HEADER + REFERENCE * node.size());
+            for (JsonNode element : node) {
+                size += sizeOf(element);
+            }
+            return size;
+        }
+        if (node.isTextual()) {
+            return OBJECT_HEADER + sizeOf(node.textValue());
+        }
+        if (node.isBigDecimal() || node.isBigInteger()) {
+            return OBJECT_HEADER + 40;
+        }
+        // Numeric, boolean and null nodes are small or shared singletons
+        return 24;
+    }
+
+    static long sizeOf(List<ParameterMetadata> metadata) {
+        if (metadata == null) {
+            return 0;
+        }
+        long size = 24 + align(ARRAY_HEADER + REFERENCE * metadata.size());
+        for (ParameterMetadata parameter : metadata) {
+            size += 24 + sizeOfValue(parameter.getSampleValue());
+        }
+        return size;
+    }
+
+    private static long sizeOfValue(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return sizeOf((String) value);
+        }
+        // Boxed numbers, booleans, dates
+        return 24;
+    }
+
+    private static int tableSize(int entries) {
+        int size = 16;
+        while (size * 0.75 < entries) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
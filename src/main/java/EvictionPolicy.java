@@ -0,0 +1,80 @@
+/**
+ * Decides which cache key to evict when the plan cache is full.
+ * Implementations are not thread-safe: the cache manager serializes all
+ * calls under its eviction lock and buffers hits before replaying them,
+ * so recordAccess() must stay O(1) but never sees contention.
+ *
+ * Every policy reports its admission decisions through CacheStatistics;
+ * evictions are counted by the cache manager.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Creates a policy sized for the given maximum number of entries
+     */
+    interface Factory {
+        EvictionPolicy create(int maxEntries, CacheStatistics statistics);
+    }
+
+    /**
+     * Look up a built-in policy by name, so it can be chosen from configuration
+     * @param name one of lru, lfu, fifo, clock, arc, w-tinylfu, gdsf
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static Factory forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "lru":
+                return LruPolicy::new;
+            case "lfu":
+                return LfuPolicy::new;
+            case "fifo":
+                return FifoPolicy::new;
+            case "clock":
+                return ClockPolicy::new;
+            case "arc":
+                return ArcPolicy::new;
+            case "w-tinylfu":
+            case "tinylfu":
+                return WTinyLfuPolicy::new;
+            case "gdsf":
+                return GdsfPolicy::new;
+            default:
+                throw new IllegalArgumentException("Unknown eviction policy: " + name);
+        }
+    }
+
+    /**
+     * Track a newly stored key. The plan carries the weight and generation
+     * cost for policies that rank entries by them. A key already tracked had
+     * its plan replaced while it stayed cached, e.g. by a refresh: keep its
+     * history, take the new plan's weight and cost, and count an access.
+     */
+    void add(String key, CachedPlan plan);
+
+    /**
+     * Record a cache hit on a tracked key
+     */
+    void recordAccess(String key);
+
+    /**
+     * Stop tracking a key that was removed from the cache
+     */
+    void remove(String key);
+
+    /**
+     * Choose and stop tracking the next victim, or return null if empty
+     */
+    String evict();
+
+    /**
+     * Adjust internal regions after the cache's capacity changed at runtime.
+     * Policies that do not size anything by capacity ignore it; the cache
+     * evicts any excess itself.
+     */
+    default void setMaximumSize(int maxEntries) {
+    }
+
+    void clear();
+
+    int size();
+}
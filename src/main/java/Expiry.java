@@ -0,0 +1,45 @@
+import java.util.Set;
+
+/**
+ * Computes a per-entry lifetime for cached plans, in place of the single
+ * global TTL. Each callback returns the number of milliseconds the plan may
+ * still be reused; zero or less expires it. Results are applied to the
+ * cache's timer wheel, so custom lifetimes cost the same as the fixed TTL.
+ *
+ * expireAfterRead runs from the maintenance cycle, shortly after the hit,
+ * not on the caller's thread.
+ */
+public interface Expiry {
+
+    /**
+     * Lifetime of a newly generated plan
+     */
+    long expireAfterCreate(NormalizedQuery query, StatementType type,
+                           Set<String> tables, long generationCostNanos);
+
+    /**
+     * Lifetime of a plan that replaced a stale plan for the same pattern.
+     * Defaults to the creation lifetime.
+     */
+    default long expireAfterUpdate(NormalizedQuery query, StatementType type,
+                                   Set<String> tables, long generationCostNanos,
+                                   long currentDurationMillis) {
+        return expireAfterCreate(query, type, tables, generationCostNanos);
+    }
+
+    /**
+     * Remaining lifetime after a cache hit. Defaults to leaving it unchanged.
+     */
+    default long expireAfterRead(NormalizedQuery query, StatementType type,
+                                 Set<String> tables, long generationCostNanos,
+                                 long currentDurationMillis) {
+        return currentDurationMillis;
+    }
+
+    /**
+     * Every plan lives for the same time after it is generated
+     */
+    static Expiry afterCreate(long ttlMillis) {
+        return (query, type, tables, generationCostNanos) -> ttlMillis;
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * First-in first-out eviction: hits do not change the order.
+ */
+public class FifoPolicy implements EvictionPolicy {
+
+    private final LinkedHashSet<String> queue;
+    private final CacheStatistics statistics;
+
+    public FifoPolicy(int maxEntries, CacheStatistics statistics) {
+        this.queue = new LinkedHashSet<>();
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void add(String key, CachedPlan plan) {
+        if (queue.add(key)) {
+            statistics.recordAdmission();
+        }
+    }
+
+    @Override
+    public void recordAccess(String key) {
+        // Insertion order only
+    }
+
+    @Override
+    public void remove(String key) {
+        queue.remove(key);
+    }
+
+    @Override
+    public String evict() {
+        Iterator<String> it = queue.iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        String victim = it.next();
+        it.remove();
+        return victim;
+    }
+
+    @Override
+    public void clear() {
+        queue.clear();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+}
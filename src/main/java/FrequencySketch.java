@@ -0,0 +1,117 @@
+import java.util.Arrays;
+
+/**
+ * Count-Min sketch of 4-bit counters used to estimate how often a cache key
+ * has been seen. Counters are halved once the number of increments reaches
+ * the sample size, so old popularity fades and new patterns can compete.
+ */
+public class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int additions;
+
+    public FrequencySketch(int maxEntries) {
+        this.table = new long[tableSizeFor(maxEntries)];
+        this.tableMask = table.length - 1;
+        this.sampleSize = 10 * Math.max(1, maxEntries);
+    }
+
+    /**
+     * Grow the table for a larger cache, keeping the counts; a smaller size
+     * keeps the current table. A key's index in the larger table only adds
+     * high bits to its old one, so repeating the old table across the new
+     * one gives every key the counters it had.
+     */
+    public void ensureCapacity(int maxEntries) {
+        int size = tableSizeFor(maxEntries);
+        if (size <= table.length) {
+            return;
+        }
+        long[] grown = new long[size];
+        for (int i = 0; i < size; i += table.length) {
+            System.arraycopy(table, 0, grown, i, table.length);
+        }
+        table = grown;
+        tableMask = size - 1;
+        sampleSize = 10 * Math.max(1, maxEntries);
+    }
+
+    /**
+     * Estimated number of occurrences of the key (0-15)
+     */
+    public int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int offset = counterOffset(hash, i);
+            frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * Record one occurrence of the key, aging all counters when the sample fills up
+     */
+    public void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int offset = counterOffset(hash, i);
+            if (((table[index] >>> offset) & 0xfL) != 0xfL) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        additions = 0;
+    }
+
+    /**
+     * Halve every counter
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    /**
+     * Each long holds sixteen counters; pick one per hash function
+     */
+    private int counterOffset(int hash, int i) {
+        return (((hash >>> (i << 3)) & 3) << 2) + (i << 4);
+    }
+
+    private static int tableSizeFor(int maxEntries) {
+        int size = Integer.highestOneBit(Math.max(2, maxEntries) - 1) << 1;
+        return Math.max(size, 16);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * GreedyDual-Size-Frequency: each key has priority
+ * H = L + frequency * cost / size, where cost is the measured plan generation
+ * time and size the estimated weight. The lowest H is evicted and L rises to
+ * the victim's priority, so entries that are not touched age out relative to
+ * newer ones. Expensive, small, frequently used plans are kept longest.
+ *
+ * Updates are O(log n) in the number of entries; hits reach the policy
+ * through the manager's read buffer, so callers never wait on it.
+ */
+public class GdsfPolicy implements EvictionPolicy {
+
+    private static final class Entry implements Comparable<Entry> {
+        final String key;
+        double costPerByte;
+        final long sequence;
+        long frequency;
+        double priority;
+
+        Entry(String key, double costPerByte, long sequence) {
+            this.key = key;
+            this.costPerByte = costPerByte;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int cmp = Double.compare(priority, other.priority);
+            return cmp != 0 ? cmp : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    private final TreeSet<Entry> queue;
+    private final CacheStatistics statistics;
+    // Inflation value: priority of the most recent victim
+    private double inflation;
+    private long sequence;
+
+    public GdsfPolicy(int maxEntries, CacheStatistics statistics) {
+        this.entries = new HashMap<>();
+        this.queue = new TreeSet<>();
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void add(String key, CachedPlan plan) {
+        Entry existing = entries.get(key);
+        if (existing != null) {
+            // A replacement plan keeps the frequency but is ranked by its own cost and size
+            existing.costPerByte = costPerByte(plan);
+            recordAccess(key);
+            return;
+        }
+        Entry entry = new Entry(key, costPerByte(plan), sequence++);
+        entry.frequency = 1;
+        entry.priority = inflation + entry.costPerByte;
+        entries.put(key, entry);
+        queue.add(entry);
+        statistics.recordAdmission();
+    }
+
+    @Override
+    public void recordAccess(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        queue.remove(entry);
+        entry.frequency++;
+        entry.priority = inflation + entry.frequency * entry.costPerByte;
+        queue.add(entry);
+    }
+
+    @Override
+    public void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            queue.remove(entry);
+        }
+    }
+
+    @Override
+    public String evict() {
+        Entry victim = queue.pollFirst();
+        if (victim == null) {
+            return null;
+        }
+        entries.remove(victim.key);
+        inflation = victim.priority;
+        return victim.key;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        queue.clear();
+        inflation = 0;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    private static double costPerByte(CachedPlan plan) {
+        double cost = Math.max(1L, plan.getGenerationCostNanos());
+        double size = Math.max(1L, plan.getWeight());
+        return cost / size;
+    }
+}
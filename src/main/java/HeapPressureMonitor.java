@@ -0,0 +1,155 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Watches the tenured heap pool and tells the cache to shed plans when it
+ * fills up.
+ *
+ * Two thresholds are set on the pool: the usage threshold fires as soon as
+ * the old generation passes the limit, and the collection usage threshold
+ * fires when it is still past the limit after a GC, which is the stronger
+ * sign that live data, not garbage, is filling it.
+ *
+ * The pool and its thresholds are JVM-wide, so every monitored cache shares
+ * one listener and one threshold; a cache asking for a different threshold
+ * is rejected. Each cache holds its own monitor, which it closes to stop
+ * being notified. The cache is held weakly, so a cache dropped without
+ * closing does not stay reachable from the listener. Once the last monitor
+ * is closed the listener is removed and the thresholds are cleared.
+ */
+public class HeapPressureMonitor {
+
+    /**
+     * The one listener registered on the memory bean, fanning out to the
+     * monitors of every cache
+     */
+    private static final class SharedListener implements NotificationListener {
+        final MemoryPoolMXBean tenuredPool;
+        final NotificationEmitter emitter;
+        final double threshold;
+        final Set<HeapPressureMonitor> monitors = new CopyOnWriteArraySet<>();
+
+        SharedListener(MemoryPoolMXBean tenuredPool, NotificationEmitter emitter, double threshold) {
+            this.tenuredPool = tenuredPool;
+            this.emitter = emitter;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            String type = notification.getType();
+            if (!MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+                    && !MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+                return;
+            }
+            for (HeapPressureMonitor monitor : monitors) {
+                monitor.notifyCache();
+            }
+        }
+    }
+
+    // The listener while any monitor is open, guarded by HeapPressureMonitor.class
+    private static SharedListener shared;
+
+    private final SharedListener listener;
+    private final WeakReference<QueryPlanCacheManager> cache;
+
+    private HeapPressureMonitor(SharedListener listener, QueryPlanCacheManager cache) {
+        this.listener = listener;
+        this.cache = new WeakReference<>(cache);
+    }
+
+    /**
+     * Start listening on behalf of a cache, setting the thresholds if no
+     * other cache is monitored
+     * @param threshold fraction of the pool's maximum size
+     * @return the monitor, or null if the JVM has no tenured pool with thresholds
+     * @throws IllegalStateException if other caches are monitored at a different threshold
+     */
+    static synchronized HeapPressureMonitor register(QueryPlanCacheManager cache, double threshold) {
+        if (shared == null) {
+            MemoryPoolMXBean pool = findTenuredPool();
+            if (pool == null || !(ManagementFactory.getMemoryMXBean() instanceof NotificationEmitter)) {
+                return null;
+            }
+            long max = pool.getUsage().getMax();
+            if (max <= 0) {
+                max = Runtime.getRuntime().maxMemory();
+            }
+            long bytes = (long) (max * threshold);
+            pool.setUsageThreshold(bytes);
+            pool.setCollectionUsageThreshold(bytes);
+
+            NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+            shared = new SharedListener(pool, emitter, threshold);
+            emitter.addNotificationListener(shared, null, null);
+        } else if (shared.threshold != threshold) {
+            throw new IllegalStateException("heapPressureThreshold " + threshold
+                + " conflicts with " + shared.threshold + " already set by another cache");
+        }
+        HeapPressureMonitor monitor = new HeapPressureMonitor(shared, cache);
+        shared.monitors.add(monitor);
+        return monitor;
+    }
+
+    /**
+     * Whether the old generation was still over the threshold after the last GC
+     */
+    boolean isUnderPressure() {
+        return listener.tenuredPool.isCollectionUsageThresholdExceeded();
+    }
+
+    /**
+     * Stop notifying this monitor's cache; the last monitor to close removes
+     * the listener and clears the thresholds
+     */
+    void close() {
+        synchronized (HeapPressureMonitor.class) {
+            if (!listener.monitors.remove(this) || !listener.monitors.isEmpty()) {
+                return;
+            }
+            try {
+                listener.emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException e) {
+                // already removed
+            }
+            listener.tenuredPool.setUsageThreshold(0);
+            listener.tenuredPool.setCollectionUsageThreshold(0);
+            if (shared == listener) {
+                shared = null;
+            }
+        }
+    }
+
+    private void notifyCache() {
+        QueryPlanCacheManager target = cache.get();
+        if (target == null) {
+            close();
+            return;
+        }
+        target.onHeapPressure();
+    }
+
+    /**
+     * The heap pool that supports both thresholds is the old generation
+     * (e.g. "G1 Old Gen", "PS Old Gen", "Tenured Gen")
+     */
+    private static MemoryPoolMXBean findTenuredPool() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported()) {
+                return pool;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Least frequently used eviction with O(1) operations: keys live in a list of
+ * frequency buckets ordered by count, and ties are broken by recency.
+ */
+public class LfuPolicy implements EvictionPolicy {
+
+    private static final class FrequencyNode {
+        final long frequency;
+        final LinkedHashSet<String> keys = new LinkedHashSet<>();
+        FrequencyNode prev;
+        FrequencyNode next;
+
+        FrequencyNode(long frequency) {
+            this.frequency = frequency;
+        }
+    }
+
+    private final Map<String, FrequencyNode> keyToNode;
+    private final CacheStatistics statistics;
+    // Lowest frequency bucket first
+    private FrequencyNode head;
+
+    public LfuPolicy(int maxEntries, CacheStatistics statistics) {
+        this.keyToNode = new HashMap<>();
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void add(String key, CachedPlan plan) {
+        if (keyToNode.containsKey(key)) {
+            recordAccess(key);
+            return;
+        }
+        if (head == null || head.frequency != 1) {
+            FrequencyNode node = new FrequencyNode(1);
+            linkAfter(null, node);
+        }
+        head.keys.add(key);
+        keyToNode.put(key, head);
+        statistics.recordAdmission();
+    }
+
+    @Override
+    public void recordAccess(String key) {
+        FrequencyNode node = keyToNode.get(key);
+        if (node == null) {
+            return;
+        }
+        FrequencyNode next = node.next;
+        if (next == null || next.frequency != node.frequency + 1) {
+            next = new FrequencyNode(node.frequency + 1);
+            linkAfter(node, next);
+        }
+        next.keys.add(key);
+        keyToNode.put(key, next);
+        removeFromNode(node, key);
+    }
+
+    @Override
+    public void remove(String key) {
+        FrequencyNode node = keyToNode.remove(key);
+        if (node != null) {
+            removeFromNode(node, key);
+        }
+    }
+
+    @Override
+    public String evict() {
+        if (head == null) {
+            return null;
+        }
+        Iterator<String> it = head.keys.iterator();
+        String victim = it.next();
+        keyToNode.remove(victim);
+        removeFromNode(head, victim);
+        return victim;
+    }
+
+    @Override
+    public void clear() {
+        keyToNode.clear();
+        head = null;
+    }
+
+    @Override
+    public int size() {
+        return keyToNode.size();
+    }
+
+    private void removeFromNode(FrequencyNode node, String key) {
+        node.keys.remove(key);
+        if (node.keys.isEmpty()) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * Insert node after prev, or at the head when prev is null
+     */
+    private void linkAfter(FrequencyNode prev, FrequencyNode node) {
+        node.prev = prev;
+        node.next = (prev == null) ? head : prev.next;
+        if (node.next != null) {
+            node.next.prev = node;
+        }
+        if (prev == null) {
+            head = node;
+        } else {
+            prev.next = node;
+        }
+    }
+
+    private void unlink(FrequencyNode node) {
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+    }
+}
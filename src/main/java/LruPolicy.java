@@ -0,0 +1,127 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Access-ordered doubly linked list of cache keys.
+ * Head is the least recently used key, tail the most recently used.
+ * All operations are O(1). Not thread-safe: callers hold the eviction lock.
+ */
+public class LruPolicy implements EvictionPolicy {
+
+    private static final class Node {
+        final String key;
+        Node prev;
+        Node next;
+
+        Node(String key) {
+            this.key = key;
+        }
+    }
+
+    private final Map<String, Node> nodes;
+    private final CacheStatistics statistics;
+    private Node head;
+    private Node tail;
+
+    public LruPolicy(int maxEntries, CacheStatistics statistics) {
+        this.nodes = new HashMap<>();
+        this.statistics = statistics;
+    }
+
+    /**
+     * Track a newly stored key as most recently used
+     */
+    @Override
+    public void add(String key, CachedPlan plan) {
+        Node node = nodes.get(key);
+        if (node != null) {
+            moveToTail(node);
+            return;
+        }
+        node = new Node(key);
+        nodes.put(key, node);
+        linkLast(node);
+        statistics.recordAdmission();
+    }
+
+    /**
+     * Promote a key to most recently used (ignored if no longer tracked)
+     */
+    @Override
+    public void recordAccess(String key) {
+        Node node = nodes.get(key);
+        if (node != null) {
+            moveToTail(node);
+        }
+    }
+
+    /**
+     * Stop tracking a key that was removed from the cache
+     */
+    @Override
+    public void remove(String key) {
+        Node node = nodes.remove(key);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * Remove and return the least recently used key, or null if empty
+     */
+    @Override
+    public String evict() {
+        Node victim = head;
+        if (victim == null) {
+            return null;
+        }
+        nodes.remove(victim.key);
+        unlink(victim);
+        return victim.key;
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        head = null;
+        tail = null;
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    private void moveToTail(Node node) {
+        if (node != tail) {
+            unlink(node);
+            linkLast(node);
+        }
+    }
+
+    private void linkLast(Node node) {
+        node.prev = tail;
+        node.next = null;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+    }
+
+    private void unlink(Node node) {
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+}
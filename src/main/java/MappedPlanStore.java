@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Disk tier behind the main cache for working sets too large for the heap.
+ *
+ * Encoded plans are appended to a memory-mapped file; an in-memory index
+ * maps each cache key to its slot and PlanHeader, so validity is checked
+ * without touching the file. A lookup inflates straight from a slice of the
+ * mapping, with no locking and no copy of the encoded bytes onto the heap.
+ * Bytes are only overwritten once clear() has reset the file for reuse;
+ * each reset bumps the file's epoch, so a lookup that raced with one sees
+ * the epoch change and reports the plan as gone instead of returning it
+ * corrupted.
+ *
+ * Removed and replaced plans leave dead bytes behind. Once they make up
+ * half of the file, or a write finds the file full, a background task
+ * copies the live, unexpired plans into a fresh file and swaps it in. If
+ * those still fill most of the file, the oldest are evicted first, so a
+ * file of live plans keeps taking new ones. Writes arriving during
+ * compaction are dropped and counted, which only costs a regeneration later.
+ *
+ * The files are scratch space: each one is unlinked right after it is
+ * mapped, so nothing is left behind when the JVM exits. Plans do not
+ * survive a restart, where schema versions start over.
+ */
+public class MappedPlanStore {
+
+    // Share of the file compaction may fill with live plans; older ones are evicted
+    private static final double MAXIMUM_LIVE_FRACTION = 0.75;
+
+    /**
+     * One memory-mapped file, filled front to back
+     */
+    private static final class Region {
+        final MappedByteBuffer buffer;
+        // Guarded by the store's lock
+        int position;
+        // Bumped by each reset, under the store's lock
+        volatile int epoch;
+
+        Region(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Where a plan's encoded bytes live, and what is needed to validate it
+     */
+    private static final class Slot {
+        final Region region;
+        final int epoch;
+        final int offset;
+        final int length;
+        final PlanHeader header;
+
+        Slot(Region region, int offset, int length, PlanHeader header) {
+            this.region = region;
+            this.epoch = region.epoch;
+            this.offset = offset;
+            this.length = length;
+            this.header = header;
+        }
+
+        /**
+         * Read-only view of the encoded bytes, sharing the mapping
+         */
+        ByteBuffer bytes() {
+            ByteBuffer view = region.buffer.duplicate();
+            view.limit(offset + length).position(offset);
+            return view.slice();
+        }
+    }
+
+    private final Path directory;
+    private final int capacity;
+    private final Executor compactionExecutor;
+    private final Ticker ticker;
+    private final CacheStatistics statistics;
+    private final ConcurrentHashMap<String, Slot> index;
+    // Serializes appends, region swaps and compaction
+    private final ReentrantLock writeLock;
+    private final AtomicBoolean compacting;
+    // Bytes of the current region no longer referenced by the index
+    private final AtomicLong deadBytes;
+    // Null once closed
+    private volatile Region region;
+
+    /**
+     * @param directory where the mapped files are created
+     * @param capacity size of each mapped file in bytes
+     * @param compactionExecutor runs background compaction
+     * @param ticker the cache's time source, which plan expirations refer to
+     * @param statistics receives dropped writes and evictions
+     */
+    public MappedPlanStore(Path directory, int capacity, Executor compactionExecutor, Ticker ticker,
+                           CacheStatistics statistics) {
+        this.directory = directory;
+        this.capacity = capacity;
+        this.compactionExecutor = compactionExecutor;
+        this.ticker = ticker;
+        this.statistics = statistics;
+        this.index = new ConcurrentHashMap<>();
+        this.writeLock = new ReentrantLock();
+        this.compacting = new AtomicBoolean();
+        this.deadBytes = new AtomicLong();
+        try {
+            this.region = openRegion();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create plan store in " + directory, e);
+        }
+    }
+
+    /**
+     * Encode and append an evicted plan
+     */
+    public void put(String cacheKey, CachedPlan plan) {
+        if (compacting.get()) {
+            statistics.recordDiskDroppedWrite();
+            return;
+        }
+        byte[] encoded = PlanCodec.encode(plan.getPlan());
+        if (encoded != null) {
+            put(cacheKey, encoded, new PlanHeader(plan));
+        }
+    }
+
+    /**
+     * Append an already encoded plan. Dropped if it cannot fit, if the file
+     * is full or being compacted, or if the store is closed; a full file is
+     * compacted to make room for later writes.
+     */
+    public void put(String cacheKey, byte[] encoded, PlanHeader header) {
+        if (compacting.get() || encoded.length > capacity) {
+            statistics.recordDiskDroppedWrite();
+            return;
+        }
+        writeLock.lock();
+        try {
+            Region current = region;
+            if (current == null) {
+                statistics.recordDiskDroppedWrite();
+                return;
+            }
+            if (compacting.get() || encoded.length > capacity - current.position) {
+                statistics.recordDiskDroppedWrite();
+                scheduleCompaction();
+                return;
+            }
+            ByteBuffer target = current.buffer.duplicate();
+            target.position(current.position);
+            target.put(encoded);
+            Slot previous = index.put(cacheKey, new Slot(current, current.position, encoded.length, header));
+            current.position += encoded.length;
+            if (previous != null) {
+                deadBytes.addAndGet(previous.length);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (deadBytes.get() > capacity / 2) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * Remove a plan and rebuild it for promotion into the main cache
+     * @param query the normalized query of the pattern being looked up
+     * @return the restored plan, or null if the key is not held
+     */
+    public CachedPlan take(String cacheKey, NormalizedQuery query) {
+        Slot slot = index.get(cacheKey);
+        if (slot == null || !index.remove(cacheKey, slot)) {
+            return null;
+        }
+        deadBytes.addAndGet(slot.length);
+        JsonNode plan = PlanCodec.decode(slot.bytes());
+        // The byte reads must complete before the epoch is checked
+        VarHandle.loadLoadFence();
+        if (plan == null || slot.region.epoch != slot.epoch) {
+            return null;
+        }
+        return slot.header.restore(plan, query);
+    }
+
+    /**
+     * Drop every plan, e.g. after a schema change made them all invalid,
+     * and fill the current file again from the front
+     */
+    public void clear() {
+        writeLock.lock();
+        try {
+            index.clear();
+            deadBytes.set(0);
+            Region current = region;
+            if (current != null) {
+                // New epoch first, so lookups reading old plans notice the overwrite
+                current.epoch++;
+                VarHandle.storeStoreFence();
+                current.position = 0;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Drop every plan and the file mapping; later writes are dropped. The
+     * mapping is unmapped once the garbage collector reclaims it, after any
+     * lookup still reading it.
+     */
+    public void close() {
+        writeLock.lock();
+        try {
+            index.clear();
+            deadBytes.set(0);
+            region = null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Bytes appended to the current file, live or dead
+     */
+    public long getFileBytes() {
+        Region current = region;
+        return (current == null) ? 0 : current.position;
+    }
+
+    public long getDeadBytes() {
+        return deadBytes.get();
+    }
+
+    private void scheduleCompaction() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactionExecutor.execute(this::compact);
+        } catch (RejectedExecutionException e) {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Copy live, unexpired plans into a fresh file and swap it in, evicting
+     * the oldest if they would fill more than MAXIMUM_LIVE_FRACTION of it.
+     * Lookups keep reading the old mapping until their slot is replaced.
+     */
+    void compact() {
+        writeLock.lock();
+        try {
+            if (region == null) {
+                return;
+            }
+            Region target = openRegion();
+            long now = ticker.read();
+            deadBytes.set(0);
+            List<Map.Entry<String, Slot>> live = new ArrayList<>();
+            long liveBytes = 0;
+            for (Map.Entry<String, Slot> entry : index.entrySet()) {
+                Slot slot = entry.getValue();
+                if (now - slot.header.getExpirationNanos() >= 0) {
+                    index.remove(entry.getKey(), slot);
+                    continue;
+                }
+                live.add(entry);
+                liveBytes += slot.length;
+            }
+            // Writes wait for compaction, so every slot is in the current file, oldest first
+            live.sort(Comparator.comparingInt(entry -> entry.getValue().offset));
+            long excess = liveBytes - (long) (capacity * MAXIMUM_LIVE_FRACTION);
+            for (Map.Entry<String, Slot> entry : live) {
+                Slot slot = entry.getValue();
+                if (excess > 0) {
+                    excess -= slot.length;
+                    if (index.remove(entry.getKey(), slot)) {
+                        statistics.recordDiskEviction();
+                    }
+                    continue;
+                }
+                ByteBuffer out = target.buffer.duplicate();
+                out.position(target.position);
+                out.put(slot.bytes());
+                Slot moved = new Slot(target, target.position, slot.length, slot.header);
+                target.position += slot.length;
+                // A plan taken while we copied was already counted as dead by take
+                index.replace(entry.getKey(), slot, moved);
+            }
+            region = target;
+        } catch (IOException e) {
+            // Keep the current file; compaction is retried on a later write
+        } finally {
+            compacting.set(false);
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Map a new file. The file is unlinked once the channel closes, while
+     * the mapping stays valid until it is garbage collected.
+     */
+    private Region openRegion() throws IOException {
+        Path file = Files.createTempFile(directory, "plans-", ".dat");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            return new Region(channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+    }
+}
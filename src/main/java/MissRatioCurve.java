@@ -0,0 +1,65 @@
+/**
+ * Snapshot of the estimated miss ratio at a range of candidate cache sizes,
+ * as sampled by MissRatioEstimator
+ */
+public class MissRatioCurve {
+    private final int[] sizes;
+    private final double[] missRatios;
+    private final long sampleCount;
+
+    public MissRatioCurve(int[] sizes, double[] missRatios, long sampleCount) {
+        this.sizes = sizes;
+        this.missRatios = missRatios;
+        this.sampleCount = sampleCount;
+    }
+
+    /**
+     * Candidate sizes, ascending
+     */
+    public int[] getSizes() { return sizes.clone(); }
+
+    /**
+     * Estimated miss ratio at each candidate size
+     */
+    public double[] getMissRatios() { return missRatios.clone(); }
+
+    /**
+     * Sampled lookups the curve is built from
+     */
+    public long getSampleCount() { return sampleCount; }
+
+    /**
+     * Estimated miss ratio of a cache holding this many plans, read at the
+     * smallest candidate size not below it
+     */
+    public double missRatioAt(int size) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] >= size) {
+                return missRatios[i];
+            }
+        }
+        return missRatios[missRatios.length - 1];
+    }
+
+    /**
+     * @return the smallest candidate size expected to reach the hit ratio,
+     *         or -1 if none does
+     */
+    public int smallestSizeFor(double targetHitRatio) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (1.0 - missRatios[i] >= targetHitRatio) {
+                return sizes[i];
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Miss ratio curve (" + sampleCount + " samples):");
+        for (int i = 0; i < sizes.length; i++) {
+            sb.append(String.format("%n  %d: %.3f", sizes[i], missRatios[i]));
+        }
+        return sb.toString();
+    }
+}
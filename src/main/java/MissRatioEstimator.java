@@ -0,0 +1,178 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Online miss ratio curve over candidate cache sizes, estimated with SHARDS
+ * (spatially hashed approximate reuse distance sampling).
+ *
+ * A lookup is sampled when the hash of its cache key falls below a
+ * threshold, so every lookup of a sampled key is seen and the sampled keys
+ * behave like a scaled-down copy of the whole workload. For each sampled
+ * lookup the reuse distance, the number of distinct sampled keys seen since
+ * the key's previous lookup, is counted with a Fenwick tree over access
+ * times and scaled up by the sampling rate. An LRU cache of size c hits
+ * exactly the lookups with a reuse distance below c, so a histogram of the
+ * distances is the miss ratio curve. Other policies, W-TinyLFU included,
+ * usually do at least as well as LRU, which makes the curve a conservative
+ * estimate.
+ *
+ * The number of tracked keys is bounded: when it is exceeded the threshold
+ * is lowered, keys above it are dropped and the histogram is rescaled to
+ * the new rate. Unsampled lookups cost a hash comparison; sampled ones
+ * synchronize on the estimator.
+ */
+public class MissRatioEstimator {
+
+    private static final int MODULUS = 1 << 24;
+    private static final int BUCKETS = 64;
+    static final int MAXIMUM_TRACKED_KEYS = 8192;
+
+    private final int bucketWidth;
+    private volatile int threshold;
+
+    // Guarded by this
+    private final Map<String, Integer> lastAccess;
+    // Marks the latest access time of each tracked key, 1-based
+    private final int[] accessTimes;
+    private int clock;
+    private final double[] histogram;
+    // Cold lookups and reuse distances beyond the largest candidate size
+    private double beyond;
+    private double total;
+    private long samples;
+
+    /**
+     * @param maximumSize largest candidate cache size
+     * @param samplingRate fraction of cache keys sampled, in (0, 1]
+     */
+    public MissRatioEstimator(int maximumSize, double samplingRate) {
+        this.bucketWidth = Math.max(1, (maximumSize + BUCKETS - 1) / BUCKETS);
+        this.threshold = Math.max(1, (int) (samplingRate * MODULUS));
+        this.lastAccess = new HashMap<>();
+        this.accessTimes = new int[2 * MAXIMUM_TRACKED_KEYS + 1];
+        this.histogram = new double[BUCKETS];
+    }
+
+    /**
+     * Record a lookup of a cache key
+     */
+    public void record(String cacheKey) {
+        int hash = hash(cacheKey);
+        if (hash >= threshold) {
+            return;
+        }
+        synchronized (this) {
+            if (hash < threshold) {
+                recordSampled(cacheKey);
+            }
+        }
+    }
+
+    public synchronized MissRatioCurve snapshot() {
+        int[] sizes = new int[BUCKETS];
+        double[] missRatios = new double[BUCKETS];
+        double hits = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            hits += histogram[i];
+            sizes[i] = (i + 1) * bucketWidth;
+            missRatios[i] = (total == 0) ? 1.0 : 1.0 - hits / total;
+        }
+        return new MissRatioCurve(sizes, missRatios, samples);
+    }
+
+    private void recordSampled(String cacheKey) {
+        samples++;
+        total++;
+        Integer previous = lastAccess.remove(cacheKey);
+        if (previous == null) {
+            beyond++;
+        } else {
+            long distance = sum(clock) - sum(previous);
+            update(previous, -1);
+            long scaled = distance * MODULUS / threshold;
+            if (scaled < (long) BUCKETS * bucketWidth) {
+                histogram[(int) (scaled / bucketWidth)]++;
+            } else {
+                beyond++;
+            }
+        }
+        if (clock == accessTimes.length - 1) {
+            renumber();
+        }
+        clock++;
+        update(clock, 1);
+        lastAccess.put(cacheKey, clock);
+        if (lastAccess.size() > MAXIMUM_TRACKED_KEYS) {
+            lowerThreshold();
+        }
+    }
+
+    /**
+     * Sample fewer keys: drop the tracked keys above a lower threshold and
+     * rescale the counts so far to the new rate
+     */
+    private void lowerThreshold() {
+        int lowered = Math.max(1, threshold * 3 / 4);
+        for (Iterator<Map.Entry<String, Integer>> it = lastAccess.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Integer> entry = it.next();
+            if (hash(entry.getKey()) >= lowered) {
+                update(entry.getValue(), -1);
+                it.remove();
+            }
+        }
+        double scale = (double) lowered / threshold;
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] *= scale;
+        }
+        beyond *= scale;
+        total *= scale;
+        threshold = lowered;
+    }
+
+    /**
+     * Compact access times to 1..n in their current order once the clock
+     * reaches the end of the tree
+     */
+    private void renumber() {
+        String[] byTime = new String[clock + 1];
+        for (Map.Entry<String, Integer> entry : lastAccess.entrySet()) {
+            byTime[entry.getValue()] = entry.getKey();
+        }
+        Arrays.fill(accessTimes, 0);
+        clock = 0;
+        for (String key : byTime) {
+            if (key != null) {
+                clock++;
+                update(clock, 1);
+                lastAccess.put(key, clock);
+            }
+        }
+    }
+
+    private void update(int time, int delta) {
+        for (int i = time; i < accessTimes.length; i += i & -i) {
+            accessTimes[i] += delta;
+        }
+    }
+
+    /**
+     * Tracked keys last accessed at or before this time
+     */
+    private long sum(int time) {
+        long count = 0;
+        for (int i = time; i > 0; i -= i & -i) {
+            count += accessTimes[i];
+        }
+        return count;
+    }
+
+    /**
+     * Spatial hash of a key into [0, MODULUS)
+     */
+    private static int hash(String cacheKey) {
+        int h = cacheKey.hashCode() * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & (MODULUS - 1);
+    }
+}
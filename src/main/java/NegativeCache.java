@@ -0,0 +1,73 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Remembers statements that failed to parse, so a client repeating a bad
+ * statement gets the parse error back without another ANTLR parse.
+ *
+ * Entries are keyed by the QueryFingerprint of the raw statement, so a
+ * long statement costs no more than a short one. Only failing statements
+ * insert; once the bound is reached the oldest failures leave first. An
+ * expired failure stays until it is overwritten or pushed out, keeping the
+ * map and the insertion queue in step.
+ */
+public class NegativeCache {
+
+    private static final class Failure {
+        final String message;
+        final long expirationNanos;
+
+        Failure(String message, long expirationNanos) {
+            this.message = message;
+            this.expirationNanos = expirationNanos;
+        }
+    }
+
+    private final int maximumSize;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<QueryFingerprint, Failure> failures;
+    // Fingerprints in insertion order, one per key in failures
+    private final ConcurrentLinkedQueue<QueryFingerprint> insertionOrder;
+
+    public NegativeCache(int maximumSize, long ttlNanos) {
+        this.maximumSize = maximumSize;
+        this.ttlNanos = ttlNanos;
+        this.failures = new ConcurrentHashMap<>();
+        this.insertionOrder = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * @return the parse error of a statement known not to parse, or null
+     */
+    public String get(QueryFingerprint fingerprint, long now) {
+        Failure failure = failures.get(fingerprint);
+        return (failure == null || now - failure.expirationNanos >= 0) ? null : failure.message;
+    }
+
+    /**
+     * Record a statement's parse error, pushing out the oldest failures if
+     * the cache is full
+     */
+    public void put(QueryFingerprint fingerprint, String message, long now) {
+        if (failures.put(fingerprint, new Failure(message, now + ttlNanos)) != null) {
+            return;
+        }
+        insertionOrder.add(fingerprint);
+        while (failures.size() > maximumSize) {
+            QueryFingerprint eldest = insertionOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            failures.remove(eldest);
+        }
+    }
+
+    public void clear() {
+        failures.clear();
+        insertionOrder.clear();
+    }
+
+    public int size() {
+        return failures.size();
+    }
+}
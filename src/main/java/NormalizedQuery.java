@@ -5,17 +5,26 @@ public class NormalizedQuery {
     private final List<Object> parameters;
     private final List<ParameterMetadata> parameterMetadata;
     private final Set<String> referencedTables;
+    private final StatementType statementType;
     
     public NormalizedQuery(String pattern, List<Object> parameters,
                           List<ParameterMetadata> metadata, Set<String> tables) {
+        this(pattern, parameters, metadata, tables, StatementType.fromPattern(pattern));
+    }
+    
+    public NormalizedQuery(String pattern, List<Object> parameters,
+                          List<ParameterMetadata> metadata, Set<String> tables,
+                          StatementType statementType) {
         this.pattern = pattern;
         this.parameters = parameters;
         this.parameterMetadata = metadata;
         this.referencedTables = tables;
+        this.statementType = statementType;
     }
     
     public String getPattern() { return pattern; }
     public List<Object> getParameters() { return parameters; }
     public List<ParameterMetadata> getParameterMetadata() { return parameterMetadata; }
     public Set<String> getReferencedTables() { return referencedTables; }
+    public StatementType getStatementType() { return statementType; }
 }
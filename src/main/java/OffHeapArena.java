@@ -0,0 +1,181 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Slab allocator for encoded plans in direct memory, so a million cached
+ * plans cost the GC a million small handles instead of a million JSON trees.
+ *
+ * Slabs are direct ByteBuffers carved into power-of-two chunks, from 64
+ * bytes up to the slab size, with a free list per size class. Each chunk
+ * starts with an 8-byte stamp, renewed whenever the chunk is handed out.
+ * Readers never lock: they check the stamp before and after decoding, so a
+ * plan removed and its chunk reused while being read is detected and
+ * reported as gone instead of returned corrupted.
+ *
+ * Allocation and freeing synchronize on the arena; they happen when plans
+ * are stored and removed, which is already off the hit path.
+ */
+public class OffHeapArena {
+
+    private static final int STAMP_BYTES = Long.BYTES;
+    private static final int MINIMUM_CHUNK = 64;
+    private static final VarHandle STAMP =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * A chunk holding one encoded plan. Only the arena changes it.
+     */
+    public static final class Allocation {
+        private final ByteBuffer slab;
+        private final int slabIndex;
+        private final int offset;
+        private final int length;
+        private final int chunkSize;
+        private final long stamp;
+        private boolean freed;
+
+        private Allocation(ByteBuffer slab, int slabIndex, int offset, int length, int chunkSize, long stamp) {
+            this.slab = slab;
+            this.slabIndex = slabIndex;
+            this.offset = offset;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.stamp = stamp;
+        }
+
+        /**
+         * Decode the plan
+         * @return the plan, or null if the chunk was freed and reused meanwhile
+         */
+        public JsonNode read() {
+            if ((long) STAMP.getVolatile(slab, offset) != stamp) {
+                return null;
+            }
+            ByteBuffer view = slab.duplicate();
+            view.limit(offset + STAMP_BYTES + length).position(offset + STAMP_BYTES);
+            JsonNode plan = PlanCodec.decode(view.slice());
+            // The payload reads must complete before the stamp is checked again
+            VarHandle.loadLoadFence();
+            return ((long) STAMP.getVolatile(slab, offset) == stamp) ? plan : null;
+        }
+
+        /**
+         * Bytes reserved for this plan, including the stamp and rounding
+         */
+        public int getChunkSize() {
+            return chunkSize;
+        }
+    }
+
+    private final int slabSize;
+    private final CacheStatistics statistics;
+    private final List<ByteBuffer> slabs;
+    // Free chunk offsets per size class, as (slab index << 32 | offset)
+    private final List<ArrayDeque<Long>> freeLists;
+    // Bump pointer into the last slab
+    private int slabPosition;
+    private long nextStamp;
+    private boolean closed;
+
+    /**
+     * @param slabSize bytes per direct buffer, rounded up to a power of two;
+     *                 also the largest plan the arena takes
+     */
+    public OffHeapArena(int slabSize, CacheStatistics statistics) {
+        this.slabSize = ceilingPowerOfTwo(Math.max(MINIMUM_CHUNK, slabSize));
+        this.statistics = statistics;
+        this.slabs = new ArrayList<>();
+        int sizeClasses = Integer.numberOfTrailingZeros(this.slabSize) + 1;
+        this.freeLists = new ArrayList<>(sizeClasses);
+        for (int i = 0; i < sizeClasses; i++) {
+            freeLists.add(new ArrayDeque<>());
+        }
+        this.slabPosition = this.slabSize;
+        this.nextStamp = 1;
+    }
+
+    /**
+     * Copy an encoded plan into a chunk
+     * @return the allocation, or null if the plan is larger than a slab or the arena is closed
+     */
+    public synchronized Allocation allocate(byte[] encoded) {
+        int needed = STAMP_BYTES + encoded.length;
+        if (needed > slabSize || closed) {
+            return null;
+        }
+        int chunkSize = ceilingPowerOfTwo(Math.max(MINIMUM_CHUNK, needed));
+        int sizeClass = Integer.numberOfTrailingZeros(chunkSize);
+
+        int slabIndex;
+        int offset;
+        Long free = freeLists.get(sizeClass).poll();
+        if (free != null) {
+            slabIndex = (int) (free >>> 32);
+            offset = (int) (long) free;
+        } else {
+            if (slabPosition + chunkSize > slabSize) {
+                // The unused tail of the old slab stays as fragmentation;
+                // stamps need 8-byte alignment for volatile access
+                slabs.add(ByteBuffer.allocateDirect(slabSize + STAMP_BYTES).alignedSlice(STAMP_BYTES));
+                slabPosition = 0;
+                statistics.adjustOffHeapReservedBytes(slabSize);
+            }
+            slabIndex = slabs.size() - 1;
+            offset = slabPosition;
+            slabPosition += chunkSize;
+        }
+        ByteBuffer slab = slabs.get(slabIndex);
+
+        // New stamp first, so readers of the chunk's previous plan notice the reuse
+        long stamp = nextStamp++;
+        STAMP.setVolatile(slab, offset, stamp);
+        VarHandle.storeStoreFence();
+        ByteBuffer target = slab.duplicate();
+        target.position(offset + STAMP_BYTES);
+        target.put(encoded);
+
+        statistics.adjustOffHeapUsedBytes(encoded.length);
+        return new Allocation(slab, slabIndex, offset, encoded.length, chunkSize, stamp);
+    }
+
+    /**
+     * Return a chunk to its free list. Freeing twice is ignored.
+     */
+    public synchronized void free(Allocation allocation) {
+        if (allocation.freed) {
+            return;
+        }
+        allocation.freed = true;
+        if (!closed) {
+            freeLists.get(Integer.numberOfTrailingZeros(allocation.chunkSize))
+                .push(((long) allocation.slabIndex << 32) | allocation.offset);
+        }
+        statistics.adjustOffHeapUsedBytes(-allocation.length);
+    }
+
+    /**
+     * Drop the slabs and take no more plans. Plans already in a slab keep
+     * reading from it; its direct memory is released once they are gone.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        statistics.adjustOffHeapReservedBytes(-(long) slabs.size() * slabSize);
+        slabs.clear();
+        for (ArrayDeque<Long> freeList : freeLists) {
+            freeList.clear();
+        }
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return (x <= 1) ? 1 : Integer.highestOneBit(x - 1) << 1;
+    }
+}
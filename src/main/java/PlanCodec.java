@@ -0,0 +1,96 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compact form of a plan's JSON tree for the tiers behind the main cache:
+ * serialized with Jackson and deflated. Decoding reads straight from a
+ * ByteBuffer, so a slice of a mapped file is inflated without copying it
+ * onto the heap first.
+ *
+ * The raw deflate and inflate steps are also used by Tier 1 to keep
+ * compressed copies of raw queries for fingerprint verification.
+ */
+public final class PlanCodec {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int BUFFER_SIZE = 512;
+
+    private PlanCodec() {
+    }
+
+    /**
+     * @return the deflated plan, or null if it cannot be serialized
+     */
+    public static byte[] encode(JsonNode plan) {
+        if (plan == null) {
+            return null;
+        }
+        try {
+            return deflate(mapper.writeValueAsBytes(plan));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflate the remaining bytes of the buffer back into a plan
+     * @return the plan, or null if the bytes are not a complete encoded plan
+     */
+    public static JsonNode decode(ByteBuffer encoded) {
+        byte[] serialized = inflate(encoded);
+        if (serialized == null) {
+            return null;
+        }
+        try {
+            return mapper.readTree(serialized);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the inflated bytes, or null if the input is not complete deflated data
+     */
+    public static byte[] inflate(ByteBuffer deflated) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(deflated.remaining() * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time view of one cached plan's bookkeeping
+ */
+public class PlanEntryStatistics {
+    private final String cacheKey;
+    private final long hitCount;
+    private final long weight;
+    private final long generationCostNanos;
+    private final long creationTime;
+    private final long lastAccessTime;
+    
+    /**
+     * @param now the cache's Ticker reading, to turn the last access into wall-clock time
+     */
+    public PlanEntryStatistics(String cacheKey, CachedPlan plan, long now) {
+        this.cacheKey = cacheKey;
+        this.hitCount = plan.getHitCount();
+        this.weight = plan.getWeight();
+        this.generationCostNanos = plan.getGenerationCostNanos();
+        this.creationTime = plan.getCreationTime();
+        this.lastAccessTime = System.currentTimeMillis()
+            - TimeUnit.NANOSECONDS.toMillis(now - plan.getLastAccessNanos());
+    }
+    
+    public String getCacheKey() { return cacheKey; }
+    public long getHitCount() { return hitCount; }
+    public long getWeight() { return weight; }
+    public long getGenerationCostNanos() { return generationCostNanos; }
+    public long getCreationTime() { return creationTime; }
+    public long getLastAccessTime() { return lastAccessTime; }
+    
+    @Override
+    public String toString() {
+        return String.format("%s hits=%d weight=%dB cost=%.1fus",
+            cacheKey, hitCount, weight, generationCostNanos / 1000.0);
+    }
+}
@@ -0,0 +1,42 @@
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * What the tiers behind the main cache keep of an evicted plan besides its
+ * encoded JSON. The normalized query is not kept: the lookup that finds the
+ * plan again has just normalized the same pattern and supplies it.
+ */
+public final class PlanHeader {
+
+    private final String schemaVersion;
+    private final long creationTime;
+    private final long createdNanos;
+    private final long generationCostNanos;
+    private final long expirationNanos;
+    private final long refreshNanos;
+    private final String tenant;
+
+    public PlanHeader(CachedPlan plan) {
+        this.schemaVersion = plan.getSchemaVersion();
+        this.creationTime = plan.getCreationTime();
+        this.createdNanos = plan.getCreatedNanos();
+        this.generationCostNanos = plan.getGenerationCostNanos();
+        this.expirationNanos = plan.getExpirationNanos();
+        this.refreshNanos = plan.getRefreshNanos();
+        this.tenant = plan.getTenant();
+    }
+
+    public long getExpirationNanos() { return expirationNanos; }
+
+    /**
+     * Rebuild the cached plan with its original schema version, deadlines
+     * and tenant, so it is validated like any cached plan
+     */
+    public CachedPlan restore(JsonNode plan, NormalizedQuery query) {
+        CachedPlan restored = new CachedPlan(plan, query, schemaVersion, creationTime, generationCostNanos);
+        restored.setCreatedNanos(createdNanos);
+        restored.setExpirationNanos(expirationNanos);
+        restored.setRefreshNanos(refreshNanos);
+        restored.setTenant(tenant);
+        return restored;
+    }
+}
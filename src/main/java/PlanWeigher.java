@@ -0,0 +1,11 @@
+/**
+ * Estimates how many bytes of heap a cached plan retains, so the cache can be
+ * bounded by memory rather than entry count.
+ */
+public interface PlanWeigher {
+
+    /**
+     * @return estimated retained size in bytes (must be non-negative)
+     */
+    long weigh(String cacheKey, CachedPlan plan);
+}
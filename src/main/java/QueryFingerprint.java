@@ -0,0 +1,131 @@
+/**
+ * 128-bit fingerprint of a raw SQL string, held as two primitive longs.
+ *
+ * Computed with the MurmurHash3 x64 128-bit mixing steps over the string's
+ * UTF-16 code units, eight chars per round, without copying the string
+ * into a byte array first. Two different statements share a fingerprint
+ * with probability around 2^-64 even across billions of statements, so
+ * the fingerprint can stand in for the statement as a lookup key.
+ */
+public final class QueryFingerprint {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long high;
+    private final long low;
+
+    public QueryFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public static QueryFingerprint of(CharSequence sqlQuery) {
+        int length = sqlQuery.length();
+        long h1 = 0;
+        long h2 = 0;
+
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            h1 ^= mixK1(pack(sqlQuery, i, 4));
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(pack(sqlQuery, i + 4, 4));
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int remaining = length - i;
+        if (remaining > 4) {
+            h2 ^= mixK2(pack(sqlQuery, i + 4, remaining - 4));
+        }
+        if (remaining > 0) {
+            h1 ^= mixK1(pack(sqlQuery, i, Math.min(remaining, 4)));
+        }
+
+        // Length in bytes, as if the chars had been hashed as UTF-16
+        h1 ^= 2L * length;
+        h2 ^= 2L * length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return new QueryFingerprint(h1, h2);
+    }
+
+    /**
+     * Fingerprint of the same statement issued by a tenant, derived from
+     * this one and the tenant's so the statement is never copied to prefix it
+     */
+    public QueryFingerprint forTenant(String tenantId) {
+        QueryFingerprint tenant = of(tenantId);
+        long h1 = high ^ mixK1(tenant.high);
+        long h2 = low ^ mixK2(tenant.low);
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return new QueryFingerprint(h1, h2);
+    }
+
+    public long getHigh() { return high; }
+    public long getLow() { return low; }
+
+    /**
+     * Up to four chars as a little-endian long
+     */
+    private static long pack(CharSequence s, int offset, int count) {
+        long k = 0;
+        for (int j = count - 1; j >= 0; j--) {
+            k = (k << 16) | s.charAt(offset + j);
+        }
+        return k;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof QueryFingerprint)) return false;
+        QueryFingerprint that = (QueryFingerprint) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        // Already well mixed
+        return (int) low;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
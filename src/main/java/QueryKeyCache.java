@@ -0,0 +1,242 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Tier 1: raw SQL to cache key, bounded by entry count and by estimated
+ * bytes retained.
+ *
+ * Raw queries are keyed by their 128-bit QueryFingerprint, so an entry
+ * costs the same few dozen bytes for a 40 KB ORM statement as for a short
+ * one, and the raw string is never retained. A fingerprint collision would
+ * map a query to another query's plan; at 2^-64 odds per pair this is
+ * ignored by default. Verification mode keeps each query deflated as well
+ * and compares it on every hit, treating a mismatch as a miss, at the cost
+ * of the compressed copy and an inflate per hit. A tenant's queries are
+ * keyed by a fingerprint combining the tenant's with the query's, and
+ * verification compares the tenant as well as the query.
+ *
+ * Eviction is a generalized CLOCK. Each mapping has a small frequency
+ * counter that a hit bumps until it saturates; the hand sweeps mappings in
+ * insertion order, decrementing counters and sending still-used mappings
+ * round again, and evicts the first one whose counter is zero. A mapping
+ * hit often since the hand last passed survives several sweeps, while a
+ * one-off literal variant goes at the first. Hits never lock and usually
+ * do not write either, once the counter is saturated.
+ *
+ * Only the thread that wins the eviction lock evicts, so under heavy
+ * concurrent inserts the bounds may be exceeded briefly.
+ */
+public class QueryKeyCache {
+
+    private static final int MAXIMUM_FREQUENCY = 3;
+    // Map node, fingerprint and mapping object; the cache key is shared with the plan
+    static final int ENTRY_OVERHEAD = 96;
+
+    private static final class Mapping {
+        final QueryFingerprint fingerprint;
+        final String cacheKey;
+        // The tenant and deflated UTF-8 of the raw query in verification mode, else null
+        final String tenantId;
+        final byte[] verification;
+        volatile int frequency;
+
+        Mapping(QueryFingerprint fingerprint, String cacheKey, String tenantId, byte[] verification) {
+            this.fingerprint = fingerprint;
+            this.cacheKey = cacheKey;
+            this.tenantId = tenantId;
+            this.verification = verification;
+        }
+
+        long weight() {
+            return ENTRY_OVERHEAD + (verification == null ? 0 : verification.length);
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final boolean verify;
+    private final CacheStatistics statistics;
+    // Told about each evicted mapping, so the plan can drop the alias
+    private final BiConsumer<QueryFingerprint, String> evictionListener;
+    private final ConcurrentHashMap<QueryFingerprint, Mapping> mappings;
+    // The clock, in insertion order; may hold mappings already removed
+    private final ConcurrentLinkedQueue<Mapping> clock;
+    private final AtomicInteger clockSize;
+    private final AtomicLong retainedBytes;
+    private final ReentrantLock evictionLock;
+
+    /**
+     * @param verify whether to keep compressed queries to rule out fingerprint collisions
+     */
+    public QueryKeyCache(int maxEntries, long maxBytes, boolean verify, CacheStatistics statistics,
+                         BiConsumer<QueryFingerprint, String> evictionListener) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.verify = verify;
+        this.statistics = statistics;
+        this.evictionListener = evictionListener;
+        this.mappings = new ConcurrentHashMap<>();
+        this.clock = new ConcurrentLinkedQueue<>();
+        this.clockSize = new AtomicInteger();
+        this.retainedBytes = new AtomicLong();
+        this.evictionLock = new ReentrantLock();
+    }
+
+    /**
+     * @param tenantId the tenant issuing the query, only read in verification mode
+     * @param sqlQuery the raw query, only read in verification mode
+     * @return the cache key for a raw query, or null if it is not mapped
+     */
+    public String get(QueryFingerprint fingerprint, String tenantId, String sqlQuery) {
+        Mapping mapping = mappings.get(fingerprint);
+        if (mapping == null) {
+            statistics.recordTier1Miss();
+            return null;
+        }
+        if (mapping.verification != null
+                && (!mapping.tenantId.equals(tenantId) || !matches(mapping.verification, sqlQuery))) {
+            statistics.recordTier1Collision();
+            statistics.recordTier1Miss();
+            return null;
+        }
+        statistics.recordTier1Hit();
+        int frequency = mapping.frequency;
+        if (frequency < MAXIMUM_FREQUENCY) {
+            // Racy increments may be lost, which only costs a little precision
+            mapping.frequency = frequency + 1;
+        }
+        return mapping.cacheKey;
+    }
+
+    public void put(QueryFingerprint fingerprint, String tenantId, String sqlQuery, String cacheKey) {
+        Mapping mapping = verify
+            ? new Mapping(fingerprint, cacheKey, tenantId, PlanCodec.deflate(sqlQuery.getBytes(StandardCharsets.UTF_8)))
+            : new Mapping(fingerprint, cacheKey, null, null);
+        Mapping previous = mappings.put(fingerprint, mapping);
+        if (previous != null) {
+            retainedBytes.addAndGet(-previous.weight());
+        }
+        retainedBytes.addAndGet(mapping.weight());
+        clock.add(mapping);
+        clockSize.incrementAndGet();
+        if (mappings.size() > maxEntries || retainedBytes.get() > maxBytes
+                || clockSize.get() > 2 * mappings.size() + maxEntries) {
+            evict();
+        }
+    }
+
+    /**
+     * Remove a mapping if it still points at the cache key
+     */
+    public void remove(QueryFingerprint fingerprint, String cacheKey) {
+        Mapping mapping = mappings.get(fingerprint);
+        if (mapping != null && mapping.cacheKey.equals(cacheKey) && mappings.remove(fingerprint, mapping)) {
+            retainedBytes.addAndGet(-mapping.weight());
+        }
+    }
+
+    public void clear() {
+        evictionLock.lock();
+        try {
+            mappings.clear();
+            clock.clear();
+            clockSize.set(0);
+            retainedBytes.set(0);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Evict the coldest fraction of the mappings through the clock, e.g.
+     * under heap pressure. The bounds stay as they are.
+     */
+    public void shed(double fraction) {
+        evictionLock.lock();
+        try {
+            int entries = mappings.size();
+            sweep(entries - (int) Math.ceil(entries * fraction), maxBytes);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public int size() {
+        return mappings.size();
+    }
+
+    /**
+     * Estimated bytes held by the mappings, including compressed queries
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            sweep(maxEntries, maxBytes);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Move the hand until the mappings fit the given bounds. Caller holds evictionLock.
+     */
+    private void sweep(int entryLimit, long byteLimit) {
+        if (clockSize.get() > 2 * mappings.size() + maxEntries) {
+            purgeRemoved();
+        }
+        while (mappings.size() > entryLimit || retainedBytes.get() > byteLimit) {
+            Mapping hand = clock.poll();
+            if (hand == null) {
+                break;
+            }
+            if (mappings.get(hand.fingerprint) != hand) {
+                clockSize.decrementAndGet();
+                continue;
+            }
+            if (hand.frequency > 0) {
+                hand.frequency--;
+                clock.add(hand);
+                continue;
+            }
+            clockSize.decrementAndGet();
+            if (mappings.remove(hand.fingerprint, hand)) {
+                retainedBytes.addAndGet(-hand.weight());
+                statistics.recordTier1Eviction();
+                evictionListener.accept(hand.fingerprint, hand.cacheKey);
+            }
+        }
+    }
+
+    /**
+     * Drop clock entries whose mapping was removed or replaced, so that
+     * churn below the bounds does not grow the clock. Caller holds evictionLock.
+     */
+    private void purgeRemoved() {
+        for (Iterator<Mapping> it = clock.iterator(); it.hasNext(); ) {
+            Mapping mapping = it.next();
+            if (mappings.get(mapping.fingerprint) != mapping) {
+                it.remove();
+                clockSize.decrementAndGet();
+            }
+        }
+    }
+
+    private static boolean matches(byte[] verification, String sqlQuery) {
+        byte[] original = PlanCodec.inflate(ByteBuffer.wrap(verification));
+        return original != null && Arrays.equals(original, sqlQuery.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -37,7 +37,7 @@ public class QueryNormalizer {
         lexer.addErrorListener(errorListener);
         parser.addErrorListener(errorListener);
         
-        ParseTree tree = parser.statement(); // Get AST root
+        SQLParser.StatementContext tree = parser.statement(); // Get AST root
         
         // Check for parse errors
         if (errorMessages.length() > 0) {
@@ -58,10 +58,23 @@ public class QueryNormalizer {
             visitor.getNormalizedPattern(),
             visitor.getParameters(),
             visitor.getParameterMetadata(),
-            visitor.getReferencedTables()
+            visitor.getReferencedTables(),
+            statementTypeOf(tree)
         );
     }
     
+    /**
+     * Top-level statement type, from the alternative the parser matched
+     */
+    private StatementType statementTypeOf(SQLParser.StatementContext tree) {
+        if (tree.withClause() != null) return StatementType.WITH;
+        if (tree.insertStatement() != null) return StatementType.INSERT;
+        if (tree.updateStatement() != null) return StatementType.UPDATE;
+        if (tree.deleteStatement() != null) return StatementType.DELETE;
+        if (tree.mergeStatement() != null) return StatementType.MERGE;
+        return StatementType.SELECT;
+    }
+    
     /**
      * Preprocess query: trim, normalize whitespace, uppercase keywords
      */
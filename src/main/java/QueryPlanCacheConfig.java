@@ -0,0 +1,469 @@
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Settings for QueryPlanCacheManager. Setters return this so a configuration
+ * can be built in one expression:
+ *
+ * <pre>
+ * new QueryPlanCacheConfig()
+ *     .maxCacheSize(50_000)
+ *     .maximumWeightBytes(256L * 1024 * 1024)
+ *     .evictionPolicy(WTinyLfuPolicy::new)
+ * </pre>
+ */
+public class QueryPlanCacheConfig {
+
+    public static final int DEFAULT_MAX_CACHE_SIZE = 10_000;
+    public static final long DEFAULT_TTL_MILLIS = 3_600_000L;
+    public static final long DEFAULT_MAXIMUM_WEIGHT_BYTES = 500L * 1024 * 1024;
+    public static final int DEFAULT_MAX_PINNED_PLANS = 100;
+    public static final double DEFAULT_HEAP_PRESSURE_SHED_FRACTION = 0.25;
+    public static final long DEFAULT_HEAP_PRESSURE_RECOVERY_MILLIS = 10_000L;
+    public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 1_000;
+    public static final long DEFAULT_NEGATIVE_CACHE_TTL_MILLIS = 60_000L;
+    public static final double DEFAULT_MISS_RATIO_SAMPLING_RATE = 0.01;
+    public static final int DEFAULT_TIER1_MAX_ENTRIES = 100_000;
+    public static final long DEFAULT_TIER1_MAX_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_AUTOTUNE_INTERVAL_MILLIS = 60_000L;
+    private static final int MAXIMUM_SEGMENTS = 1 << 16;
+    private static final int DEFAULT_MAXIMUM_SEGMENTS = 64;
+    private static final int MINIMUM_SEGMENT_ENTRIES = 256;
+
+    private int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    private long ttlMillis = DEFAULT_TTL_MILLIS;
+    private long maximumWeightBytes = DEFAULT_MAXIMUM_WEIGHT_BYTES;
+    private EvictionPolicy.Factory evictionPolicy = LruPolicy::new;
+    private PlanWeigher weigher = new DefaultPlanWeigher();
+    private Expiry expiry;
+    private long refreshAfterWriteMillis;
+    private Executor refreshExecutor = ForkJoinPool.commonPool();
+    private Ticker ticker = Ticker.coarseTicker();
+    private RemovalListener removalListener;
+    private long staleWhileRevalidateMillis;
+    private int segments;
+    private int maxPinnedPlans = DEFAULT_MAX_PINNED_PLANS;
+    private double heapPressureThreshold;
+    private double heapPressureShedFraction = DEFAULT_HEAP_PRESSURE_SHED_FRACTION;
+    private long heapPressureRecoveryMillis = DEFAULT_HEAP_PRESSURE_RECOVERY_MILLIS;
+    private long victimCacheWeightBytes;
+    private Path diskTierDirectory;
+    private int diskTierBytes;
+    private int offHeapSlabBytes;
+    private int negativeCacheSize = DEFAULT_NEGATIVE_CACHE_SIZE;
+    private long negativeCacheTtlMillis = DEFAULT_NEGATIVE_CACHE_TTL_MILLIS;
+    private int tier1MaxEntries = DEFAULT_TIER1_MAX_ENTRIES;
+    private long tier1MaxBytes = DEFAULT_TIER1_MAX_BYTES;
+    private boolean tier1Verification = false;
+    private int missRatioCurveSize;
+    private double missRatioSamplingRate = DEFAULT_MISS_RATIO_SAMPLING_RATE;
+    private int autotuneMinSize;
+    private int autotuneMaxSize;
+    private double autotuneTargetHitRatio;
+    private long autotuneIntervalMillis = DEFAULT_AUTOTUNE_INTERVAL_MILLIS;
+    private final Map<String, CapacityQuota> tenantQuotas = new HashMap<>();
+    private final Map<StatementType, CapacityQuota> statementTypePools = new EnumMap<>(StatementType.class);
+    private Set<String> staleUnsafeTables = Collections.emptySet();
+
+    /**
+     * Maximum number of cached plans
+     */
+    public QueryPlanCacheConfig maxCacheSize(int maxCacheSize) {
+        if (maxCacheSize <= 0) {
+            throw new IllegalArgumentException("maxCacheSize must be positive: " + maxCacheSize);
+        }
+        this.maxCacheSize = maxCacheSize;
+        return this;
+    }
+
+    /**
+     * Time after creation at which a plan is no longer reused
+     */
+    public QueryPlanCacheConfig ttlMillis(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive: " + ttlMillis);
+        }
+        this.ttlMillis = ttlMillis;
+        return this;
+    }
+
+    /**
+     * Budget for the estimated retained size of all cached plans
+     */
+    public QueryPlanCacheConfig maximumWeightBytes(long maximumWeightBytes) {
+        if (maximumWeightBytes <= 0) {
+            throw new IllegalArgumentException("maximumWeightBytes must be positive: " + maximumWeightBytes);
+        }
+        this.maximumWeightBytes = maximumWeightBytes;
+        return this;
+    }
+
+    public QueryPlanCacheConfig evictionPolicy(EvictionPolicy.Factory evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    public QueryPlanCacheConfig weigher(PlanWeigher weigher) {
+        this.weigher = weigher;
+        return this;
+    }
+
+    /**
+     * Per-entry lifetimes; when unset every plan lives for ttlMillis
+     */
+    public QueryPlanCacheConfig expiry(Expiry expiry) {
+        this.expiry = expiry;
+        return this;
+    }
+
+    /**
+     * Age after which a hit regenerates the plan in the background while the
+     * current plan keeps being served. Should be below the TTL; 0 disables.
+     */
+    public QueryPlanCacheConfig refreshAfterWriteMillis(long refreshAfterWriteMillis) {
+        if (refreshAfterWriteMillis < 0) {
+            throw new IllegalArgumentException("refreshAfterWriteMillis must not be negative: " + refreshAfterWriteMillis);
+        }
+        this.refreshAfterWriteMillis = refreshAfterWriteMillis;
+        return this;
+    }
+
+    /**
+     * Executor for background plan regeneration, disk tier compaction and
+     * removal notifications
+     */
+    public QueryPlanCacheConfig refreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+        return this;
+    }
+
+    /**
+     * Listener told about every plan leaving the cache: key, pattern, cause,
+     * age and hit count. Called asynchronously on the refresh executor.
+     */
+    public QueryPlanCacheConfig removalListener(RemovalListener removalListener) {
+        this.removalListener = removalListener;
+        return this;
+    }
+
+    /**
+     * Time source for expiration, refresh and access bookkeeping. Defaults
+     * to a coarse clock updated every millisecond by a background thread.
+     */
+    public QueryPlanCacheConfig ticker(Ticker ticker) {
+        if (ticker == null) {
+            throw new IllegalArgumentException("ticker must not be null");
+        }
+        this.ticker = ticker;
+        return this;
+    }
+
+    /**
+     * Grace window during which an expired or schema-invalidated plan is
+     * still served while one background task regenerates it. 0 disables.
+     */
+    public QueryPlanCacheConfig staleWhileRevalidateMillis(long staleWhileRevalidateMillis) {
+        if (staleWhileRevalidateMillis < 0) {
+            throw new IllegalArgumentException("staleWhileRevalidateMillis must not be negative: " + staleWhileRevalidateMillis);
+        }
+        this.staleWhileRevalidateMillis = staleWhileRevalidateMillis;
+        return this;
+    }
+
+    /**
+     * Tables whose schema changes must never be answered with a stale plan;
+     * plans referencing them are dropped immediately as before
+     */
+    public QueryPlanCacheConfig staleUnsafeTables(String... tables) {
+        this.staleUnsafeTables = new HashSet<>(Arrays.asList(tables));
+        return this;
+    }
+
+    /**
+     * Number of independently locked cache segments, rounded up to a power
+     * of two. Entry and byte capacity are split evenly between segments, so
+     * eviction order is per segment. By default one segment per core, up to
+     * 64, while each segment keeps at least 256 entries.
+     */
+    public QueryPlanCacheConfig segments(int segments) {
+        if (segments <= 0 || segments > MAXIMUM_SEGMENTS) {
+            throw new IllegalArgumentException("segments must be between 1 and " + MAXIMUM_SEGMENTS + ": " + segments);
+        }
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * Number of plans that may be pinned, on top of maxCacheSize
+     */
+    public QueryPlanCacheConfig maxPinnedPlans(int maxPinnedPlans) {
+        if (maxPinnedPlans < 0) {
+            throw new IllegalArgumentException("maxPinnedPlans must not be negative: " + maxPinnedPlans);
+        }
+        this.maxPinnedPlans = maxPinnedPlans;
+        return this;
+    }
+
+    /**
+     * Shed plans when the tenured heap pool passes this fraction of its
+     * maximum, before or after a collection. The threshold is set on the
+     * JVM-wide pool and shared by every open cache, so creating a cache with
+     * a different threshold fails until the others are closed. 0 disables.
+     */
+    public QueryPlanCacheConfig heapPressureThreshold(double heapPressureThreshold) {
+        if (heapPressureThreshold < 0 || heapPressureThreshold >= 1) {
+            throw new IllegalArgumentException("heapPressureThreshold must be in [0, 1): " + heapPressureThreshold);
+        }
+        this.heapPressureThreshold = heapPressureThreshold;
+        return this;
+    }
+
+    /**
+     * Fraction of the cached plans dropped per heap pressure notification,
+     * and of the capacity restored per recovery step
+     */
+    public QueryPlanCacheConfig heapPressureShedFraction(double heapPressureShedFraction) {
+        if (heapPressureShedFraction <= 0 || heapPressureShedFraction > 1) {
+            throw new IllegalArgumentException("heapPressureShedFraction must be in (0, 1]: " + heapPressureShedFraction);
+        }
+        this.heapPressureShedFraction = heapPressureShedFraction;
+        return this;
+    }
+
+    /**
+     * Time between capacity recovery steps once heap pressure has cleared
+     */
+    public QueryPlanCacheConfig heapPressureRecoveryMillis(long heapPressureRecoveryMillis) {
+        if (heapPressureRecoveryMillis <= 0) {
+            throw new IllegalArgumentException("heapPressureRecoveryMillis must be positive: " + heapPressureRecoveryMillis);
+        }
+        this.heapPressureRecoveryMillis = heapPressureRecoveryMillis;
+        return this;
+    }
+
+    /**
+     * Byte budget of the compressed tier that keeps recently evicted plans
+     * for cheap promotion back into the cache. 0 disables.
+     */
+    public QueryPlanCacheConfig victimCacheWeightBytes(long victimCacheWeightBytes) {
+        if (victimCacheWeightBytes < 0) {
+            throw new IllegalArgumentException("victimCacheWeightBytes must not be negative: " + victimCacheWeightBytes);
+        }
+        this.victimCacheWeightBytes = victimCacheWeightBytes;
+        return this;
+    }
+
+    /**
+     * Keep evicted plans in memory-mapped files in this directory, each of
+     * the given size, behind the victim tier if there is one. The files are
+     * scratch space and do not outlive the JVM. Compaction runs on the
+     * refresh executor.
+     */
+    public QueryPlanCacheConfig diskTier(Path directory, int fileBytes) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory must not be null");
+        }
+        if (fileBytes <= 0) {
+            throw new IllegalArgumentException("fileBytes must be positive: " + fileBytes);
+        }
+        this.diskTierDirectory = directory;
+        this.diskTierBytes = fileBytes;
+        return this;
+    }
+
+    /**
+     * Store cached plan trees deflated in direct memory, carved from slabs
+     * of the given size, keeping only a small handle per plan on the heap.
+     * Plans are inflated on each hit, trading CPU for GC pressure; plans
+     * larger than a slab stay on-heap. 0 (the default) disables.
+     */
+    public QueryPlanCacheConfig offHeapStorage(int slabBytes) {
+        if (slabBytes < 0 || slabBytes > 1 << 30) {
+            throw new IllegalArgumentException("slabBytes must be between 0 and 2^30: " + slabBytes);
+        }
+        this.offHeapSlabBytes = slabBytes;
+        return this;
+    }
+
+    /**
+     * Bound and TTL of the cache of statements that failed to parse, which
+     * are rejected with the cached error instead of being parsed again.
+     * A size of 0 disables it.
+     */
+    public QueryPlanCacheConfig negativeCache(int maximumSize, long ttlMillis) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive: " + ttlMillis);
+        }
+        this.negativeCacheSize = maximumSize;
+        this.negativeCacheTtlMillis = ttlMillis;
+        return this;
+    }
+
+    /**
+     * Bounds of Tier 1, the raw SQL to cache key map: number of raw queries
+     * and estimated bytes retained. Evicted queries are parsed again on
+     * their next lookup.
+     */
+    public QueryPlanCacheConfig tier1Capacity(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.tier1MaxEntries = maxEntries;
+        this.tier1MaxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Keep a compressed copy of each raw query in Tier 1 and compare it on
+     * every hit, so a fingerprint collision is caught as a miss instead of
+     * returning another query's plan. Off by default.
+     */
+    public QueryPlanCacheConfig tier1Verification(boolean enabled) {
+        this.tier1Verification = enabled;
+        return this;
+    }
+
+    /**
+     * Estimate the miss ratio at cache sizes up to maximumSize by sampling
+     * lookups of this fraction of cache keys, reported by
+     * CacheStatistics.getMissRatioCurve(). Lower rates cost less but need
+     * more traffic for a stable curve.
+     */
+    public QueryPlanCacheConfig missRatioCurve(int maximumSize, double samplingRate) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        if (samplingRate <= 0 || samplingRate > 1) {
+            throw new IllegalArgumentException("samplingRate must be in (0, 1]: " + samplingRate);
+        }
+        this.missRatioCurveSize = maximumSize;
+        this.missRatioSamplingRate = samplingRate;
+        return this;
+    }
+
+    /**
+     * Let the cache pick its own maxCacheSize within [minSize, maxSize]:
+     * the smallest size the miss ratio curve expects to reach the target
+     * hit ratio, capped by what maximumWeightBytes holds at the current
+     * average plan weight. Estimates the curve up to maxSize unless
+     * missRatioCurve was configured.
+     */
+    public QueryPlanCacheConfig autotune(int minSize, int maxSize, double targetHitRatio) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid autotune bounds: [" + minSize + ", " + maxSize + "]");
+        }
+        if (targetHitRatio <= 0 || targetHitRatio >= 1) {
+            throw new IllegalArgumentException("targetHitRatio must be in (0, 1): " + targetHitRatio);
+        }
+        this.autotuneMinSize = minSize;
+        this.autotuneMaxSize = maxSize;
+        this.autotuneTargetHitRatio = targetHitRatio;
+        return this;
+    }
+
+    /**
+     * Time between autotune decisions
+     */
+    public QueryPlanCacheConfig autotuneIntervalMillis(long autotuneIntervalMillis) {
+        if (autotuneIntervalMillis <= 0) {
+            throw new IllegalArgumentException("autotuneIntervalMillis must be positive: " + autotuneIntervalMillis);
+        }
+        this.autotuneIntervalMillis = autotuneIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Entry and byte quota for one tenant. Tenants without a quota split the
+     * cache evenly. Quotas are borrowable: a tenant may exceed its quota while
+     * the cache has room, and is evicted from first once it is full.
+     */
+    public QueryPlanCacheConfig tenantQuota(String tenantId, int maxEntries, long maximumWeightBytes) {
+        tenantQuotas.put(tenantId, new CapacityQuota(maxEntries, maximumWeightBytes));
+        return this;
+    }
+
+    /**
+     * Reserve part of the cache for one statement type. Its plans are evicted
+     * only among themselves, so e.g. large MERGE plans cannot crowd out
+     * SELECT lookups. Pool capacity is carved out of maxCacheSize and
+     * maximumWeightBytes.
+     */
+    public QueryPlanCacheConfig statementTypePool(StatementType type, int maxEntries, long maximumWeightBytes) {
+        statementTypePools.put(type, new CapacityQuota(maxEntries, maximumWeightBytes));
+        return this;
+    }
+
+    public int getMaxCacheSize() { return maxCacheSize; }
+    public long getTtlMillis() { return ttlMillis; }
+    public long getMaximumWeightBytes() { return maximumWeightBytes; }
+    public EvictionPolicy.Factory getEvictionPolicy() { return evictionPolicy; }
+    public PlanWeigher getWeigher() { return weigher; }
+    public long getRefreshAfterWriteMillis() { return refreshAfterWriteMillis; }
+    public Executor getRefreshExecutor() { return refreshExecutor; }
+    public Ticker getTicker() { return ticker; }
+    public RemovalListener getRemovalListener() { return removalListener; }
+    public long getStaleWhileRevalidateMillis() { return staleWhileRevalidateMillis; }
+    public int getMaxPinnedPlans() { return maxPinnedPlans; }
+    public double getHeapPressureThreshold() { return heapPressureThreshold; }
+    public double getHeapPressureShedFraction() { return heapPressureShedFraction; }
+    public long getHeapPressureRecoveryMillis() { return heapPressureRecoveryMillis; }
+    public long getVictimCacheWeightBytes() { return victimCacheWeightBytes; }
+    public Path getDiskTierDirectory() { return diskTierDirectory; }
+    public int getDiskTierBytes() { return diskTierBytes; }
+    public int getOffHeapSlabBytes() { return offHeapSlabBytes; }
+    public int getNegativeCacheSize() { return negativeCacheSize; }
+    public long getNegativeCacheTtlMillis() { return negativeCacheTtlMillis; }
+    public int getTier1MaxEntries() { return tier1MaxEntries; }
+    public long getTier1MaxBytes() { return tier1MaxBytes; }
+    public boolean isTier1Verification() { return tier1Verification; }
+    public double getMissRatioSamplingRate() { return missRatioSamplingRate; }
+    public int getAutotuneMinSize() { return autotuneMinSize; }
+    public int getAutotuneMaxSize() { return autotuneMaxSize; }
+    public double getAutotuneTargetHitRatio() { return autotuneTargetHitRatio; }
+    public long getAutotuneIntervalMillis() { return autotuneIntervalMillis; }
+    public boolean isAutotuned() { return autotuneTargetHitRatio > 0; }
+
+    /**
+     * Largest size on the miss ratio curve, 0 if no curve is estimated
+     */
+    public int getMissRatioCurveSize() {
+        return (missRatioCurveSize == 0 && isAutotuned()) ? autotuneMaxSize : missRatioCurveSize;
+    }
+    public Map<String, CapacityQuota> getTenantQuotas() { return Collections.unmodifiableMap(tenantQuotas); }
+    public Map<StatementType, CapacityQuota> getStatementTypePools() { return Collections.unmodifiableMap(statementTypePools); }
+
+    public int getSegments() {
+        if (segments == 0) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            return Integer.highestOneBit(Math.min(Math.min(cores, DEFAULT_MAXIMUM_SEGMENTS),
+                Math.max(1, maxCacheSize / MINIMUM_SEGMENT_ENTRIES)));
+        }
+        return segments == 1 ? 1 : Integer.highestOneBit(segments - 1) << 1;
+    }
+    public Set<String> getStaleUnsafeTables() { return staleUnsafeTables; }
+
+    /**
+     * Whether lifetimes come from an Expiry rather than ttlMillis
+     */
+    public boolean hasCustomExpiry() {
+        return expiry != null;
+    }
+
+    public Expiry getExpiry() {
+        return expiry != null ? expiry : Expiry.afterCreate(ttlMillis);
+    }
+}
@@ -5,111 +5,540 @@ import java.security.MessageDigest;
 import java.util.Base64;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.util.Collections;
-public class QueryPlanCacheManager {
+import java.util.function.BiConsumer;
+public class QueryPlanCacheManager implements AutoCloseable {
     
-    private final ConcurrentHashMap<String, CachedPlan> planCache;
+    /**
+     * Tenant used by getExecutionPlan(sql), pin(sql) and unpin(sql)
+     */
+    public static final String DEFAULT_TENANT = "default";
+    
+    /**
+     * A pinned pattern and the tenant whose plan it is
+     */
+    private static final class PinnedQuery {
+        final String tenantId;
+        final NormalizedQuery normalized;
+        
+        PinnedQuery(String tenantId, NormalizedQuery normalized) {
+            this.tenantId = tenantId;
+            this.normalized = normalized;
+        }
+    }
+    
+    // Power-of-two shards, each with its own map, locks and eviction
+    private final CacheSegment[] segments;
+    private final int segmentMask;
     private final QueryNormalizer normalizer;
     private final PlanGenerator planGenerator;
     private final CacheStatistics statistics;
+    // Per-tenant hit, miss and eviction counts; the shared object above is the total
+    private final ConcurrentHashMap<String, CacheStatistics> tenantStatistics;
     private final SchemaVersionTracker schemaTracker;
-    private final int maxCacheSize;
-    private final long ttlMillis;
     
-    // Per-key locks to prevent duplicate plan generation
-    private final ConcurrentHashMap<String, Object> generationLocks;
+    // Refresh-ahead: hits on plans older than this regenerate them in the background
+    private final long refreshAfterWriteNanos;
+    private final Executor refreshExecutor;
+    private final Ticker ticker;
+    private final ConcurrentHashMap<String, CachedPlan> refreshesInFlight;
+    // Stale-while-revalidate: expired or schema-invalidated plans are served
+    // for this long while a single refresh regenerates them
+    private final long staleGraceNanos;
+    private final Set<String> staleUnsafeTables;
+    
     // Cache to store the cache key for a query
-    private final ConcurrentHashMap<String, String> queryToKeyCache;
+    private final QueryKeyCache queryToKeyCache;
+    // Tiers behind the segments for evicted plans: compressed on heap, then
+    // memory-mapped on disk; either is null when disabled
+    private final VictimCache victimCache;
+    private final MappedPlanStore diskStore;
+    // Direct-memory slabs for cached plans, or null when disabled
+    private final OffHeapArena offHeapArena;
+    // Statements known not to parse, or null when disabled
+    private final NegativeCache negativeCache;
+    
+    // Pinned patterns by cache key, with their own budget; kept for eager
+    // regeneration after schema changes
+    private final ConcurrentHashMap<String, PinnedQuery> pinnedQueries;
+    private final int maxPinnedPlans;
+    
+    // Current limits, changed live by setMaximumSize, setMaximumWeightBytes and setTtl
+    private volatile int maximumSize;
+    private volatile long maximumWeightBytes;
+    private volatile long ttlMillis;
+    // Capacity reserved by statement type pools, which does not resize
+    private final int pooledEntries;
+    private final long pooledWeightBytes;
+    private final boolean customExpiry;
+    
+    // Heap pressure shedding; the monitor is null when disabled or unsupported
+    private final HeapPressureMonitor heapPressure;
+    private final double shedFraction;
+    private final long recoveryIntervalNanos;
+    // Set while segments run below their share after shedding
+    private volatile boolean shedding;
+    
+    // SHARDS sampling of lookups for the miss ratio curve, or null when off
+    private final MissRatioEstimator missRatioEstimator;
+    // Capacity chosen from the curve when autotuning, on misses like recovery
+    private final boolean autotune;
+    private final int autotuneMinSize;
+    private final int autotuneMaxSize;
+    private final double autotuneTargetHitRatio;
+    private final long autotuneIntervalNanos;
+    private volatile long lastAutotuneNanos;
+    private volatile long lastCapacityChangeNanos;
     
     public QueryPlanCacheManager(int maxCacheSize, long ttlMillis) {
-        this.planCache = new ConcurrentHashMap<>();
+        this(maxCacheSize, ttlMillis, LruPolicy::new);
+    }
+    
+    /**
+     * @param policyFactory eviction policy, e.g. ArcPolicy::new or EvictionPolicy.forName("w-tinylfu")
+     */
+    public QueryPlanCacheManager(int maxCacheSize, long ttlMillis, EvictionPolicy.Factory policyFactory) {
+        this(new QueryPlanCacheConfig()
+            .maxCacheSize(maxCacheSize)
+            .ttlMillis(ttlMillis)
+            .evictionPolicy(policyFactory));
+    }
+    
+    public QueryPlanCacheManager(QueryPlanCacheConfig config) {
         this.normalizer = new QueryNormalizer();
         this.planGenerator = new PlanGenerator();
         this.statistics = new CacheStatistics();
+        this.tenantStatistics = new ConcurrentHashMap<>();
         this.schemaTracker = new SchemaVersionTracker();
-        this.maxCacheSize = maxCacheSize;
+        this.refreshAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(config.getRefreshAfterWriteMillis());
+        this.refreshExecutor = config.getRefreshExecutor();
+        this.ticker = config.getTicker();
+        this.refreshesInFlight = new ConcurrentHashMap<>();
+        this.staleGraceNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(config.getStaleWhileRevalidateMillis()),
+            CacheSegment.MAXIMUM_LIFETIME_NANOS >> 1);
+        this.staleUnsafeTables = config.getStaleUnsafeTables();
+        this.queryToKeyCache = new QueryKeyCache(config.getTier1MaxEntries(), config.getTier1MaxBytes(),
+            config.isTier1Verification(), statistics, this::forgetQuery);
+        this.diskStore = (config.getDiskTierDirectory() != null)
+            ? new MappedPlanStore(config.getDiskTierDirectory(), config.getDiskTierBytes(),
+                config.getRefreshExecutor(), ticker, statistics)
+            : null;
+        this.victimCache = (config.getVictimCacheWeightBytes() > 0)
+            ? new VictimCache(config.getVictimCacheWeightBytes(), diskStore) : null;
+        BiConsumer<String, CachedPlan> evictionSink = (victimCache != null) ? victimCache::put
+            : (diskStore != null) ? diskStore::put : null;
+        this.offHeapArena = (config.getOffHeapSlabBytes() > 0)
+            ? new OffHeapArena(config.getOffHeapSlabBytes(), statistics) : null;
+        RemovalDispatcher removalDispatcher = (config.getRemovalListener() != null)
+            ? new RemovalDispatcher(config.getRemovalListener(), config.getRefreshExecutor(),
+                ticker, statistics)
+            : null;
+        this.negativeCache = (config.getNegativeCacheSize() > 0)
+            ? new NegativeCache(config.getNegativeCacheSize(),
+                TimeUnit.MILLISECONDS.toNanos(config.getNegativeCacheTtlMillis()))
+            : null;
+        this.pinnedQueries = new ConcurrentHashMap<>();
+        this.maxPinnedPlans = config.getMaxPinnedPlans();
+        
+        this.maximumSize = config.getMaxCacheSize();
+        this.maximumWeightBytes = config.getMaximumWeightBytes();
+        this.ttlMillis = config.getTtlMillis();
+        this.customExpiry = config.hasCustomExpiry();
+        
+        // Statement type pools are carved out of the capacity first
+        int poolEntries = 0;
+        long poolWeight = 0;
+        for (CapacityQuota pool : config.getStatementTypePools().values()) {
+            poolEntries += pool.getMaxEntries();
+            poolWeight += pool.getMaximumWeightBytes();
+        }
+        this.pooledEntries = poolEntries;
+        this.pooledWeightBytes = poolWeight;
+        int generalEntries = generalEntries(maximumSize);
+        long generalWeight = generalWeight(maximumWeightBytes);
+        
+        int segmentCount = config.getSegments();
+        this.segments = new CacheSegment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new CacheSegment((int) segmentShare(generalEntries, i),
+                segmentShare(generalWeight, i), staleGraceNanos,
+                config, statistics, this::statisticsFor, queryToKeyCache, evictionSink,
+                offHeapArena, removalDispatcher);
+        }
+        
+        this.shedFraction = config.getHeapPressureShedFraction();
+        this.recoveryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getHeapPressureRecoveryMillis());
+        this.heapPressure = (config.getHeapPressureThreshold() > 0)
+            ? HeapPressureMonitor.register(this, config.getHeapPressureThreshold()) : null;
+        
+        this.missRatioEstimator = (config.getMissRatioCurveSize() > 0)
+            ? new MissRatioEstimator(config.getMissRatioCurveSize(), config.getMissRatioSamplingRate())
+            : null;
+        statistics.setMissRatioEstimator(missRatioEstimator);
+        this.autotune = config.isAutotuned();
+        this.autotuneMinSize = Math.max(config.getAutotuneMinSize(), pooledEntries + 1);
+        this.autotuneMaxSize = Math.max(config.getAutotuneMaxSize(), autotuneMinSize);
+        this.autotuneTargetHitRatio = config.getAutotuneTargetHitRatio();
+        this.autotuneIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getAutotuneIntervalMillis());
+        this.lastAutotuneNanos = ticker.read();
+    }
+    
+    /**
+     * Change the number of cached plans, including statement type pools, at
+     * runtime. Growing takes effect immediately. Shrinking evicts the excess
+     * on this thread in small batches, releasing each segment's lock between
+     * them so requests are never held up by the whole shrink.
+     */
+    public synchronized void setMaximumSize(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        int generalEntries = generalEntries(maximumSize);
+        this.maximumSize = maximumSize;
+        resize(generalEntries, generalWeight(maximumWeightBytes));
+    }
+    
+    /**
+     * Change the byte budget at runtime, with the same behavior as setMaximumSize
+     */
+    public synchronized void setMaximumWeightBytes(long maximumWeightBytes) {
+        if (maximumWeightBytes <= 0) {
+            throw new IllegalArgumentException("maximumWeightBytes must be positive: " + maximumWeightBytes);
+        }
+        long generalWeight = generalWeight(maximumWeightBytes);
+        this.maximumWeightBytes = maximumWeightBytes;
+        resize(generalEntries(maximumSize), generalWeight);
+    }
+    
+    /**
+     * Change the TTL at runtime. Cached plans keep their age: each plan's
+     * remaining lifetime moves by the difference between the old and new TTL,
+     * so shortening it may expire plans right away.
+     * @throws IllegalStateException if the cache was built with a custom Expiry
+     */
+    public synchronized void setTtl(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive: " + ttlMillis);
+        }
+        if (customExpiry) {
+            throw new IllegalStateException("TTL is computed by a custom Expiry");
+        }
+        long deltaNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis - this.ttlMillis);
         this.ttlMillis = ttlMillis;
-        this.generationLocks = new ConcurrentHashMap<>();
-        this.queryToKeyCache = new ConcurrentHashMap<>();
+        Expiry expiry = Expiry.afterCreate(ttlMillis);
+        for (CacheSegment segment : segments) {
+            segment.setExpiry(expiry, deltaNanos);
+        }
+        cleanUp();
+    }
+    
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+    
+    public long getMaximumWeightBytes() {
+        return maximumWeightBytes;
+    }
+    
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+    
+    private void resize(int generalEntries, long generalWeight) {
+        setSegmentCapacities(generalEntries, generalWeight);
+        // An explicit limit replaces whatever shedding left behind
+        shedding = false;
+        cleanUp();
+    }
+    
+    private void setSegmentCapacities(int generalEntries, long generalWeight) {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].setCapacity((int) segmentShare(generalEntries, i), segmentShare(generalWeight, i));
+        }
+    }
+    
+    /**
+     * Apply a size chosen by autotuning, unless heap pressure shed capacity
+     * after it was chosen. Shed capacity is given back by recovery, so unlike
+     * setMaximumSize this leaves shedding alone.
+     */
+    private synchronized void applyTunedSize(int size) {
+        if (shedding) {
+            return;
+        }
+        int generalEntries = generalEntries(size);
+        this.maximumSize = size;
+        setSegmentCapacities(generalEntries, generalWeight(maximumWeightBytes));
+        cleanUp();
+    }
+    
+    /**
+     * Heap pressure notification: shed the coldest fraction of Tier 1,
+     * whose mappings are rebuilt by the next lookup of their query, then
+     * the same fraction of the cached plans. Capacity stays lowered until
+     * pressure clears.
+     */
+    synchronized void onHeapPressure() {
+        statistics.recordPressureShed();
+        queryToKeyCache.shed(shedFraction);
+        for (CacheSegment segment : segments) {
+            segment.shed(shedFraction);
+        }
+        shedding = true;
+        lastCapacityChangeNanos = ticker.read();
+        cleanUp();
+    }
+    
+    /**
+     * Give back one step of shed capacity once the old generation is below
+     * its threshold after a GC. Checked on misses, which is what a cache
+     * shrunk by shedding produces, so no background thread is needed.
+     */
+    private void recoverCapacityIfDue() {
+        if (!shedding || ticker.read() - lastCapacityChangeNanos < recoveryIntervalNanos) {
+            return;
+        }
+        synchronized (this) {
+            long now = ticker.read();
+            if (!shedding || now - lastCapacityChangeNanos < recoveryIntervalNanos) {
+                return;
+            }
+            lastCapacityChangeNanos = now;
+            if (heapPressure != null && heapPressure.isUnderPressure()) {
+                return;
+            }
+            int generalEntries = generalEntries(maximumSize);
+            long generalWeight = generalWeight(maximumWeightBytes);
+            boolean recovered = true;
+            for (int i = 0; i < segments.length; i++) {
+                CacheSegment segment = segments[i];
+                long entries = segmentShare(generalEntries, i);
+                long weight = segmentShare(generalWeight, i);
+                long nextEntries = Math.min(entries,
+                    segment.getMaxEntries() + Math.max(1, (long) (entries * shedFraction)));
+                long nextWeight = Math.min(weight,
+                    segment.getMaximumWeightBytes() + Math.max(1, (long) (weight * shedFraction)));
+                segment.setCapacity((int) nextEntries, nextWeight);
+                recovered &= (nextEntries == entries && nextWeight == weight);
+            }
+            shedding = !recovered;
+        }
+    }
+    
+    /**
+     * Move maxCacheSize to the smallest size the miss ratio curve expects to
+     * reach the target hit ratio, within the autotune bounds and no larger
+     * than the byte budget holds at the current average plan weight.
+     * Checked on misses; the resize runs on the refresh executor so the
+     * missing request does not pay for a shrink.
+     */
+    private void autotuneIfDue() {
+        if (!autotune || shedding || ticker.read() - lastAutotuneNanos < autotuneIntervalNanos) {
+            return;
+        }
+        int size;
+        synchronized (this) {
+            long now = ticker.read();
+            if (shedding || now - lastAutotuneNanos < autotuneIntervalNanos) {
+                return;
+            }
+            lastAutotuneNanos = now;
+            MissRatioCurve curve = missRatioEstimator.snapshot();
+            if (curve.getSampleCount() == 0) {
+                return;
+            }
+            size = curve.smallestSizeFor(autotuneTargetHitRatio);
+            if (size < 0) {
+                size = autotuneMaxSize;
+            }
+            long entries = getCacheSize();
+            long averageWeight = (entries == 0) ? 0 : getWeightedSize() / entries;
+            if (averageWeight > 0) {
+                size = (int) Math.min(size, maximumWeightBytes / averageWeight);
+            }
+            size = Math.max(autotuneMinSize, Math.min(autotuneMaxSize, size));
+            if (size == maximumSize) {
+                return;
+            }
+        }
+        int tunedSize = size;
+        try {
+            refreshExecutor.execute(() -> applyTunedSize(tunedSize));
+        } catch (RejectedExecutionException e) {
+            // Try again at the next interval
+        }
+    }
+    
+    /**
+     * Capacity left to the general region once statement type pools are reserved
+     */
+    private int generalEntries(int maximumSize) {
+        int entries = maximumSize - pooledEntries;
+        if (entries <= 0) {
+            throw new IllegalArgumentException("Statement type pools must leave room for other statements");
+        }
+        return entries;
+    }
+    
+    private long generalWeight(long maximumWeightBytes) {
+        long weight = maximumWeightBytes - pooledWeightBytes;
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Statement type pools must leave room for other statements");
+        }
+        return weight;
+    }
+    
+    /**
+     * One segment's even split of a capacity, handing the remainder to the
+     * first segments; every segment holds at least one entry
+     */
+    private long segmentShare(long total, int index) {
+        int count = segments.length;
+        return Math.max(1, total / count + (index < total % count ? 1 : 0));
     }
     
     /**
      * Main entry point: Get execution plan for a query
      */
     public ExecutionPlan getExecutionPlan(String sqlQuery) {
-        // statistics.recordRequest();
+        return getExecutionPlan(DEFAULT_TENANT, sqlQuery);
+    }
+    
+    /**
+     * Get execution plan for a query on behalf of a tenant. Tenants never
+     * share plans; each one's plans count against its own quota.
+     */
+    public ExecutionPlan getExecutionPlan(String tenantId, String sqlQuery) {
+        if (tenantId == null) {
+            throw new IllegalArgumentException("tenantId must not be null");
+        }
+        CacheStatistics tenantStats = statisticsFor(tenantId);
+        QueryFingerprint sqlFingerprint = QueryFingerprint.of(sqlQuery);
+        QueryFingerprint fingerprint = tier1Fingerprint(tenantId, sqlFingerprint);
     
         // FAST PATH: Check if we've seen this exact query before
-        String cachedKey = queryToKeyCache.get(sqlQuery);
+        String cachedKey = queryToKeyCache.get(fingerprint, tenantId, sqlQuery);
         if (cachedKey != null) {
-            CachedPlan cached = planCache.get(cachedKey);
-            if (cached != null && isValid(cached)) {
+            CacheSegment segment = segmentFor(cachedKey);
+            CachedPlan cached = segment.get(cachedKey);
+            JsonNode planJson = planOf(cached);
+            long now = ticker.read();
+            if (planJson != null && isValid(cached, now)) {
                 // Super-fast cache hit - no parsing needed!
-                statistics.recordHit();
-                cached.recordAccess();
-                return bindParameters(cached.getPlan(), cached.getParameterMetadata());
+                statistics.recordHit(cached.getStatementType());
+                tenantStats.recordHit(cached.getStatementType());
+                segment.recordRead(cachedKey);
+                sampleLookup(cachedKey);
+                refreshIfDue(cachedKey, cached, now);
+                return bindParameters(planJson, cached.getParameterMetadata());
+            } else if (planJson != null && isServableStale(cached, now)) {
+                sampleLookup(cachedKey);
+                serveStale(cachedKey, cached);
+                return bindParameters(planJson, cached.getParameterMetadata());
             } else {
                 // Cached key is stale, remove it
-                queryToKeyCache.remove(sqlQuery);
+                queryToKeyCache.remove(fingerprint, cachedKey);
             }
         }
         
         // SLOW PATH: Parse and normalize the query
-        NormalizedQuery normalized = normalizer.normalize(sqlQuery);
-        String cacheKey = generateCacheKey(normalized.getPattern());
+        NormalizedQuery normalized = normalize(sqlQuery, sqlFingerprint);
+        String cacheKey = tenantCacheKey(tenantId, generateCacheKey(normalized.getPattern()));
+        sampleLookup(cacheKey);
         
         // Try cache lookup with normalized key
-        CachedPlan cached = planCache.get(cacheKey);
+        CacheSegment segment = segmentFor(cacheKey);
+        CachedPlan cached = segment.get(cacheKey);
+        JsonNode planJson = planOf(cached);
+        long now = ticker.read();
         
-        if (cached != null && isValid(cached)) {
+        if (planJson != null && isValid(cached, now)) {
             // Cache HIT (after normalization)
-            statistics.recordHit();
-            cached.recordAccess();
+            statistics.recordHit(normalized.getStatementType());
+            tenantStats.recordHit(normalized.getStatementType());
+            segment.recordRead(cacheKey);
+            refreshIfDue(cacheKey, cached, now);
             
             // Cache the raw query → key mapping for next time
-            queryToKeyCache.put(sqlQuery, cacheKey);
+            rememberQuery(fingerprint, tenantId, sqlQuery, cacheKey);
             
             // Bind parameters and return
-            return bindParameters(cached.getPlan(), normalized.getParameters());
+            return bindParameters(planJson, normalized.getParameters());
+        }
+        
+        if (planJson != null && isServableStale(cached, now)) {
+            serveStale(cacheKey, cached);
+            rememberQuery(fingerprint, tenantId, sqlQuery, cacheKey);
+            return bindParameters(planJson, normalized.getParameters());
         }
         
         // Cache MISS - need to generate plan
-        statistics.recordMiss();
-        ExecutionPlan plan = generateAndCachePlan(cacheKey, normalized);
+        statistics.recordMiss(normalized.getStatementType());
+        tenantStats.recordMiss(normalized.getStatementType());
+        recoverCapacityIfDue();
+        autotuneIfDue();
+        ExecutionPlan plan = generateAndCachePlan(tenantId, cacheKey, normalized);
         
         // Cache the raw query → key mapping for next time
-        queryToKeyCache.put(sqlQuery, cacheKey);
+        rememberQuery(fingerprint, tenantId, sqlQuery, cacheKey);
         
         return plan;
     }
     
+    /**
+     * Add a Tier 1 mapping and record it on the plan, so removing the plan
+     * also removes its raw-query mappings without scanning Tier 1.
+     */
+    private void rememberQuery(QueryFingerprint fingerprint, String tenantId, String sqlQuery, String cacheKey) {
+        queryToKeyCache.put(fingerprint, tenantId, sqlQuery, cacheKey);
+        CachedPlan cached = segmentFor(cacheKey).get(cacheKey);
+        if (cached != null) {
+            cached.addQueryAlias(fingerprint);
+        }
+    }
+    
+    /**
+     * Tier 1 evicted a raw query; drop it from its plan's aliases too
+     */
+    private void forgetQuery(QueryFingerprint fingerprint, String cacheKey) {
+        CachedPlan cached = segmentFor(cacheKey).get(cacheKey);
+        if (cached != null) {
+            cached.removeQueryAlias(fingerprint);
+        }
+    }
+    
     /**
      * Generate plan with double-checked locking to avoid duplicate work
      */
-    private ExecutionPlan generateAndCachePlan(String cacheKey, NormalizedQuery normalized) {
+    private ExecutionPlan generateAndCachePlan(String tenantId, String cacheKey, NormalizedQuery normalized) {
         // Get or create a lock object for this specific key
-        Object lock = generationLocks.computeIfAbsent(cacheKey, k -> new Object());
+        CacheSegment segment = segmentFor(cacheKey);
+        Object lock = segment.generationLock(cacheKey);
         
         synchronized (lock) {
             // Double-check: another thread may have generated the plan
-            CachedPlan cached = planCache.get(cacheKey);
-            if (cached != null && isValid(cached)) {
-                statistics.recordHit(); // Actually a hit on retry
-                return bindParameters(cached.getPlan(), normalized.getParameters());
+            CachedPlan cached = segment.get(cacheKey);
+            JsonNode planJson = planOf(cached);
+            if (planJson != null && isValid(cached, ticker.read())) {
+                statistics.recordHit(normalized.getStatementType()); // Actually a hit on retry
+                statisticsFor(tenantId).recordHit(normalized.getStatementType());
+                return bindParameters(planJson, normalized.getParameters());
             }
             
-            // Generate new plan
-            JsonNode planJson = planGenerator.generate(normalized.getPattern());
+            // A recently evicted plan only needs inflating, not planning
+            CachedPlan restored = restoreEvicted(tenantId, cacheKey, normalized);
+            if (restored != null) {
+                // Take the tree before storing, which may move it off-heap
+                planJson = restored.getPlan();
+                storePlan(cacheKey, restored, normalized, null);
+                return bindParameters(planJson, normalized.getParameters());
+            }
             
-            // Create cached plan with metadata
-            CachedPlan cachedPlan = new CachedPlan(
-                planJson,
-                normalized.getParameterMetadata(),
-                schemaTracker.getCurrentVersion(),
-                System.currentTimeMillis()
-            );
+            CachedPlan cachedPlan = generatePlan(tenantId, cacheKey, normalized);
+            planJson = cachedPlan.getPlan();
             
             // Store in cache (with eviction if needed)
-            storePlan(cacheKey, cachedPlan, normalized);
+            storePlan(cacheKey, cachedPlan, normalized, null);
             
             // Return bound plan
             return bindParameters(planJson, normalized.getParameters());
@@ -117,27 +546,278 @@ public class QueryPlanCacheManager {
     }
     
     /**
-     * Store plan in cache with eviction policy
+     * Normalize a statement, failing fast with the cached error if it is
+     * already known not to parse
+     * @param fingerprint the raw statement's fingerprint, whatever the tenant
+     * @throws RuntimeException if the SQL query cannot be parsed
      */
-    private void storePlan(String cacheKey, CachedPlan plan, NormalizedQuery normalized) {
-        // Check if we need to evict
-        if (planCache.size() >= maxCacheSize) {
-            evictLRU();
+    private NormalizedQuery normalize(String sqlQuery, QueryFingerprint fingerprint) {
+        if (negativeCache == null) {
+            return normalizer.normalize(sqlQuery);
         }
+        long now = ticker.read();
+        String error = negativeCache.get(fingerprint, now);
+        if (error != null) {
+            statistics.recordNegativeHit();
+            throw new RuntimeException(error);
+        }
+        try {
+            return normalizer.normalize(sqlQuery);
+        } catch (RuntimeException e) {
+            negativeCache.put(fingerprint, e.getMessage(), now);
+            throw e;
+        }
+    }
+    
+    /**
+     * Feed a lookup to the miss ratio curve, once per getExecutionPlan call
+     */
+    private void sampleLookup(String cacheKey) {
+        if (missRatioEstimator != null) {
+            missRatioEstimator.record(cacheKey);
+        }
+    }
+    
+    /**
+     * A cached plan's JSON tree, decoded if it is stored off-heap
+     * @return null if there is no plan, or its off-heap storage was reused
+     *         because the plan was removed while we read it
+     */
+    private static JsonNode planOf(CachedPlan cached) {
+        return (cached == null) ? null : cached.getPlan();
+    }
+    
+    /**
+     * Take a plan back from the victim or disk tier if it is still valid.
+     * Caller holds the key's generation lock.
+     */
+    private CachedPlan restoreEvicted(String tenantId, String cacheKey, NormalizedQuery normalized) {
+        long now = ticker.read();
+        if (victimCache != null) {
+            CachedPlan restored = victimCache.take(cacheKey, normalized);
+            if (restored != null && isValid(restored, now)) {
+                statistics.recordVictimHit();
+                statisticsFor(tenantId).recordVictimHit();
+                restored.setPinned(pinnedQueries.containsKey(cacheKey));
+                return restored;
+            }
+        }
+        if (diskStore != null) {
+            CachedPlan restored = diskStore.take(cacheKey, normalized);
+            if (restored != null && isValid(restored, now)) {
+                statistics.recordDiskHit();
+                statisticsFor(tenantId).recordDiskHit();
+                restored.setPinned(pinnedQueries.containsKey(cacheKey));
+                return restored;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Run the plan generator, measuring its cost for cost-aware eviction
+     */
+    private CachedPlan generatePlan(String tenantId, String cacheKey, NormalizedQuery normalized) {
+        String schemaVersion = schemaTracker.getCurrentVersion();
+        long generationStart = System.nanoTime();
+        JsonNode planJson = planGenerator.generate(normalized.getPattern());
+        long generationCost = System.nanoTime() - generationStart;
+        long generatedAt = ticker.read();
+        statistics.recordGenerationCost(generationCost);
+        
+        // Create cached plan with metadata
+        CachedPlan cachedPlan = new CachedPlan(
+            planJson,
+            normalized,
+            schemaVersion,
+            System.currentTimeMillis(),
+            generationCost
+        );
+        cachedPlan.setCreatedNanos(generatedAt);
+        cachedPlan.setRefreshNanos(generatedAt + refreshAfterWriteNanos);
+        cachedPlan.setPinned(pinnedQueries.containsKey(cacheKey));
+        cachedPlan.setTenant(tenantId);
+        return cachedPlan;
+    }
+    
+    /**
+     * Pin a statement's plan so it is never evicted or expired. The plan is
+     * generated now if it is not cached, and counts against the pinned budget
+     * rather than the cache's capacity. Schema changes still invalidate it,
+     * after which it is regenerated eagerly.
+     * @throws IllegalStateException if the pinned budget is exhausted
+     */
+    public void pin(String sqlQuery) {
+        pin(DEFAULT_TENANT, sqlQuery);
+    }
+    
+    /**
+     * Pin a statement's plan for one tenant; other tenants' plans for the
+     * same pattern are unaffected. Pinned plans of all tenants share the
+     * pinned budget.
+     * @throws IllegalStateException if the pinned budget is exhausted
+     */
+    public void pin(String tenantId, String sqlQuery) {
+        if (tenantId == null) {
+            throw new IllegalArgumentException("tenantId must not be null");
+        }
+        QueryFingerprint sqlFingerprint = QueryFingerprint.of(sqlQuery);
+        NormalizedQuery normalized = normalize(sqlQuery, sqlFingerprint);
+        String cacheKey = tenantCacheKey(tenantId, generateCacheKey(normalized.getPattern()));
+        PinnedQuery pinnedQuery = new PinnedQuery(tenantId, normalized);
         
-        planCache.put(cacheKey, plan);
+        synchronized (pinnedQueries) {
+            if (!pinnedQueries.containsKey(cacheKey) && pinnedQueries.size() >= maxPinnedPlans) {
+                throw new IllegalStateException("Pinned plan budget of " + maxPinnedPlans + " is exhausted");
+            }
+            pinnedQueries.put(cacheKey, pinnedQuery);
+        }
+        swapPinned(cacheKey, pinnedQuery, true);
+        rememberQuery(tier1Fingerprint(tenantId, sqlFingerprint), tenantId, sqlQuery, cacheKey);
+    }
+    
+    /**
+     * Return a pinned statement's plan to normal eviction and TTL
+     * @return false if the statement was not pinned
+     */
+    public boolean unpin(String sqlQuery) {
+        return unpin(DEFAULT_TENANT, sqlQuery);
+    }
+    
+    /**
+     * Return a tenant's pinned plan to normal eviction and TTL
+     * @return false if the statement was not pinned for the tenant
+     */
+    public boolean unpin(String tenantId, String sqlQuery) {
+        if (tenantId == null) {
+            throw new IllegalArgumentException("tenantId must not be null");
+        }
+        NormalizedQuery normalized = normalize(sqlQuery, QueryFingerprint.of(sqlQuery));
+        String cacheKey = tenantCacheKey(tenantId, generateCacheKey(normalized.getPattern()));
         
-        // Track table dependencies for targeted invalidation
+        PinnedQuery pinnedQuery = pinnedQueries.remove(cacheKey);
+        if (pinnedQuery == null) {
+            return false;
+        }
+        swapPinned(cacheKey, pinnedQuery, false);
+        return true;
+    }
+    
+    public int getPinnedCount() {
+        return pinnedQueries.size();
+    }
+    
+    /**
+     * Replace the cached plan with a copy in the requested pinned state,
+     * generating one if pinning a pattern that is not cached
+     */
+    private void swapPinned(String cacheKey, PinnedQuery pinnedQuery, boolean pinned) {
+        NormalizedQuery normalized = pinnedQuery.normalized;
+        CacheSegment segment = segmentFor(cacheKey);
+        synchronized (segment.generationLock(cacheKey)) {
+            CachedPlan current = segment.get(cacheKey);
+            if (current != null && isValid(current, ticker.read())) {
+                if (current.isPinned() != pinned) {
+                    storePlan(cacheKey, current.withPinned(pinned), normalized, current);
+                }
+            } else if (pinned) {
+                storePlan(cacheKey, generatePlan(pinnedQuery.tenantId, cacheKey, normalized), normalized, null);
+            }
+        }
+    }
+    
+    /**
+     * Rebuild every pinned plan against the current schema version
+     */
+    private void regeneratePinnedPlans() {
+        for (Map.Entry<String, PinnedQuery> entry : pinnedQueries.entrySet()) {
+            try {
+                swapPinned(entry.getKey(), entry.getValue(), true);
+            } catch (RuntimeException e) {
+                // Left for the next miss on the pattern to regenerate
+                statistics.recordRefreshFailure();
+            }
+        }
+    }
+    
+    /**
+     * Start an asynchronous regeneration if the plan is past the refresh
+     * threshold. The current plan keeps being served meanwhile, and at most
+     * one refresh per key is in flight.
+     */
+    private void refreshIfDue(String cacheKey, CachedPlan cached, long now) {
+        if (refreshAfterWriteNanos > 0 && now - cached.getRefreshNanos() >= 0) {
+            scheduleRefresh(cacheKey, cached);
+        }
+    }
+    
+    /**
+     * Serve an expired or schema-invalidated plan inside the grace window,
+     * regenerating it in the background
+     */
+    private void serveStale(String cacheKey, CachedPlan cached) {
+        statistics.recordStaleServe();
+        segmentFor(cacheKey).recordRead(cacheKey);
+        scheduleRefresh(cacheKey, cached);
+    }
+    
+    /**
+     * Queue a background regeneration unless one is already in flight for the key
+     */
+    private void scheduleRefresh(String cacheKey, CachedPlan cached) {
+        if (cached.getQuery() == null || refreshesInFlight.putIfAbsent(cacheKey, cached) != null) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> refreshPlan(cacheKey, cached));
+        } catch (RejectedExecutionException e) {
+            refreshesInFlight.remove(cacheKey, cached);
+        }
+    }
+    
+    /**
+     * Background refresh: regenerate and swap in the new plan, unless the
+     * entry was evicted, invalidated or replaced in the meantime.
+     */
+    private void refreshPlan(String cacheKey, CachedPlan current) {
+        try {
+            NormalizedQuery normalized = current.getQuery();
+            CachedPlan fresh = generatePlan(current.getTenant(), cacheKey, normalized);
+            // A schema change during generation makes the new plan stale already
+            if (!fresh.getSchemaVersion().equals(schemaTracker.getCurrentVersion())) {
+                return;
+            }
+            if (storePlan(cacheKey, fresh, normalized, current)) {
+                statistics.recordRefresh();
+            }
+        } catch (RuntimeException e) {
+            // The stale plan stays until it expires; the next miss regenerates it
+            statistics.recordRefreshFailure();
+        } finally {
+            refreshesInFlight.remove(cacheKey, current);
+        }
+    }
+    
+    /**
+     * Store plan in its segment, then track table dependencies for targeted invalidation
+     * @param expected if non-null, only store when this is still the cached plan
+     * @return whether the plan was stored
+     */
+    private boolean storePlan(String cacheKey, CachedPlan plan, NormalizedQuery normalized,
+                              CachedPlan expected) {
+        if (!segmentFor(cacheKey).store(cacheKey, plan, normalized, expected)) {
+            return false;
+        }
         schemaTracker.recordDependencies(cacheKey, normalized.getReferencedTables());
+        return true;
     }
     
     /**
      * Validate cached plan (check TTL and schema version)
      */
-    private boolean isValid(CachedPlan cached) {
-        // Check TTL
-        long age = System.currentTimeMillis() - cached.getCreationTime();
-        if (age > ttlMillis) {
+    private boolean isValid(CachedPlan cached, long now) {
+        // Check TTL (the timer wheel reclaims expired plans, this covers the gap)
+        if (now - cached.getExpirationNanos() >= 0) {
             return false;
         }
         
@@ -150,51 +830,121 @@ public class QueryPlanCacheManager {
     }
     
     /**
-     * Evict least recently used entries
+     * Whether an invalid plan may still be served: stale-while-revalidate is
+     * on, the plan went stale less than the grace window ago, and it can be
+     * regenerated. Schema-invalidated plans count as stale from the change.
      */
-    private void evictLRU() {
-        CachedPlan oldest = null;
-        String oldestKey = null;
-        
-        for (Map.Entry<String, CachedPlan> entry : planCache.entrySet()) {
-            if (oldest == null || entry.getValue().getLastAccessTime() < oldest.getLastAccessTime()) {
-                oldest = entry.getValue();
-                oldestKey = entry.getKey();
-            }
+    private boolean isServableStale(CachedPlan cached, long now) {
+        if (staleGraceNanos <= 0 || cached.getQuery() == null) {
+            return false;
         }
-        
-        if (oldestKey != null) {
-            planCache.remove(oldestKey);
-            statistics.recordEviction();
+        long staleness = now - cached.getExpirationNanos();
+        return staleness >= 0 && staleness < staleGraceNanos;
+    }
+    
+    /**
+     * Segment owning a cache key. The hash is remixed so segment selection
+     * does not correlate with the key's position in the segment's own tables.
+     */
+    private CacheSegment segmentFor(String cacheKey) {
+        int h = cacheKey.hashCode() * 0x9E3779B9;
+        return segments[(h ^ (h >>> 16)) & segmentMask];
+    }
+    
+    /**
+     * Run pending maintenance now: replay buffered hits and reclaim expired
+     * plans. Maintenance otherwise piggybacks on cache writes and hit bursts.
+     */
+    public void cleanUp() {
+        for (CacheSegment segment : segments) {
+            while (segment.cleanUp()) {
+                // each call evicts one bounded batch and releases the lock
+            }
         }
     }
     
     /**
-     * Invalidate cache on schema change
+     * Invalidate cache on schema change. With stale-while-revalidate the
+     * invalidated plans stay servable for the grace window, unless the table
+     * was registered as unsafe to serve stale plans for.
      */
     public void onSchemaChange(String tableName) {
         Set<String> affectedKeys = schemaTracker.getAffectedPlans(tableName);
         
-        for (String key : affectedKeys) {
-            planCache.remove(key);
-            statistics.recordInvalidation();
+        if (staleGraceNanos > 0 && !staleUnsafeTables.contains(tableName)) {
+            for (String key : affectedKeys) {
+                if (segmentFor(key).get(key) != null) {
+                    statistics.recordInvalidation();
+                }
+            }
+        } else {
+            // Removing each plan also clears its query-to-key mappings
+            for (String key : affectedKeys) {
+                segmentFor(key).invalidate(key, RemovalCause.SCHEMA);
+                statistics.recordInvalidation();
+            }
+        }
+        if (staleGraceNanos > 0) {
+            // The version bump invalidates every plan; start their grace windows now
+            long now = ticker.read();
+            for (CacheSegment segment : segments) {
+                segment.expireAll(now, RemovalCause.SCHEMA);
+            }
         }
-        // Clear query-to-key cache for affected plans
-        queryToKeyCache.entrySet().removeIf(entry -> affectedKeys.contains(entry.getValue()));
     
         // Update schema version
         schemaTracker.incrementVersion();
+        
+        // Every evicted plan was planned against the old schema
+        clearEvictedTiers();
+        
+        // The version bump invalidated every pinned plan; rebuild them now
+        regeneratePinnedPlans();
     }
     
     /**
      * Clear entire cache
      */
     public void clearCache() {
-        planCache.clear();
+        for (CacheSegment segment : segments) {
+            segment.clear();
+        }
         queryToKeyCache.clear(); 
+        clearEvictedTiers();
+        if (negativeCache != null) {
+            negativeCache.clear();
+        }
         statistics.recordFullClear();
     }
     
+    /**
+     * Release what the cache holds outside the heap: its heap pressure
+     * registration with the JVM's memory bean, the disk tier's file mapping
+     * and the off-heap slabs. The cache itself remains usable, but no longer
+     * spills evicted plans to disk and keeps new plans on the heap.
+     */
+    @Override
+    public void close() {
+        if (heapPressure != null) {
+            heapPressure.close();
+        }
+        if (diskStore != null) {
+            diskStore.close();
+        }
+        if (offHeapArena != null) {
+            offHeapArena.close();
+        }
+    }
+    
+    private void clearEvictedTiers() {
+        if (victimCache != null) {
+            victimCache.clear();
+        }
+        if (diskStore != null) {
+            diskStore.clear();
+        }
+    }
+    
     /**
      * Bind parameters to execution plan
      */
@@ -228,10 +978,66 @@ public class QueryPlanCacheManager {
         return statistics;
     }
     
+    /**
+     * Hit, miss and eviction counts for one tenant
+     */
+    public CacheStatistics getTenantStatistics(String tenantId) {
+        return statisticsFor(tenantId);
+    }
+    
+    private CacheStatistics statisticsFor(String tenantId) {
+        CacheStatistics tenantStats = tenantStatistics.get(tenantId);
+        return (tenantStats != null) ? tenantStats
+            : tenantStatistics.computeIfAbsent(tenantId, t -> new CacheStatistics());
+    }
+    
+    /**
+     * Plans are cached per tenant: other tenants' keys get a prefix, which
+     * cannot clash with the Base64 pattern hash
+     */
+    private static String tenantCacheKey(String tenantId, String patternKey) {
+        return DEFAULT_TENANT.equals(tenantId) ? patternKey : tenantId + ':' + patternKey;
+    }
+    
+    /**
+     * Tier 1 fingerprint of a raw statement; other tenants' fingerprints are
+     * combined with the tenant's so that tenants never share a mapping
+     */
+    private static QueryFingerprint tier1Fingerprint(String tenantId, QueryFingerprint sqlFingerprint) {
+        return DEFAULT_TENANT.equals(tenantId) ? sqlFingerprint : sqlFingerprint.forTenant(tenantId);
+    }
+    
     /**
      * Get current cache size
      */
     public int getCacheSize() {
-        return planCache.size();
+        int size = 0;
+        for (CacheSegment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+    
+    /**
+     * Snapshot of per-entry hit count, weight and generation cost
+     */
+    public List<PlanEntryStatistics> getPlanStatistics() {
+        // Per-entry counters are updated when buffered hits are replayed
+        cleanUp();
+        List<PlanEntryStatistics> snapshot = new ArrayList<>(getCacheSize());
+        long now = ticker.read();
+        for (CacheSegment segment : segments) {
+            for (Map.Entry<String, CachedPlan> entry : segment.entrySet()) {
+                snapshot.add(new PlanEntryStatistics(entry.getKey(), entry.getValue(), now));
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Get estimated bytes retained by cached plans
+     */
+    public long getWeightedSize() {
+        return statistics.getWeightedSize();
     }
 }
\ No newline at end of file
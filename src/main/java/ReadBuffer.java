@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Striped, lossy ring buffers recording cache hits for later replay.
+ *
+ * A hit picks a stripe by thread and claims a slot with one CAS. If the
+ * stripe is full or the CAS loses a race, the hit is dropped: the eviction
+ * policy only needs a representative sample of accesses, and dropping keeps
+ * the hit path from ever waiting. Draining is done by the single thread
+ * holding the segment's eviction lock.
+ */
+public class ReadBuffer {
+
+    public static final int SUCCESS = 0;
+    public static final int FAILED = 1;
+    public static final int FULL = 2;
+
+    private static final int STRIPE_CAPACITY = 16;
+    private static final int STRIPE_MASK = STRIPE_CAPACITY - 1;
+    private static final int MAXIMUM_STRIPES = 64;
+
+    private static final class Stripe {
+        final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(STRIPE_CAPACITY);
+        final AtomicLong writeCounter = new AtomicLong();
+        // Only advanced by the draining thread
+        final AtomicLong readCounter = new AtomicLong();
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public ReadBuffer() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int count = Math.min(MAXIMUM_STRIPES, Integer.highestOneBit(Math.max(1, cores - 1)) << 1);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Record a hit on the key
+     * @return SUCCESS, FAILED if the slot was lost to another thread, or
+     *         FULL if the stripe needs draining
+     */
+    public int offer(String key) {
+        Stripe stripe = stripes[probe() & stripeMask];
+        long head = stripe.readCounter.get();
+        long tail = stripe.writeCounter.get();
+        if (tail - head >= STRIPE_CAPACITY) {
+            return FULL;
+        }
+        if (!stripe.writeCounter.compareAndSet(tail, tail + 1)) {
+            return FAILED;
+        }
+        stripe.slots.lazySet((int) (tail & STRIPE_MASK), key);
+        return SUCCESS;
+    }
+
+    /**
+     * Pass every published hit to the consumer. Caller holds the eviction lock.
+     */
+    public void drainTo(Consumer<String> consumer) {
+        for (Stripe stripe : stripes) {
+            long head = stripe.readCounter.get();
+            long tail = stripe.writeCounter.get();
+            while (head < tail) {
+                int index = (int) (head & STRIPE_MASK);
+                String key = stripe.slots.get(index);
+                if (key == null) {
+                    // Slot claimed but not yet written; pick it up next drain
+                    break;
+                }
+                stripe.slots.lazySet(index, null);
+                consumer.accept(key);
+                head++;
+            }
+            stripe.readCounter.lazySet(head);
+        }
+    }
+
+    /**
+     * Discard buffered hits. Caller holds the eviction lock.
+     */
+    public void clear() {
+        drainTo(key -> { });
+    }
+
+    private static int probe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Why a plan left the cache, as reported to a RemovalListener
+ */
+public enum RemovalCause {
+    /** Evicted to stay within the entry or byte budget, or shed under heap pressure */
+    SIZE,
+    /** Its TTL ran out, or it was replaced after expiring */
+    EXPIRED,
+    /** A table it references changed */
+    SCHEMA,
+    /** Removed by clearCache() */
+    EXPLICIT,
+    /** Replaced by a newer plan for the same pattern, e.g. a refresh or (un)pinning */
+    REPLACED
+}
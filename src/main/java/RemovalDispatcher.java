@@ -0,0 +1,72 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands removal notifications to a RemovalListener off the caller's thread.
+ *
+ * Notifications are queued without blocking, mostly from segment
+ * maintenance under its eviction lock. At most one drain task runs at a
+ * time, so the listener sees notifications one by one in queue order.
+ */
+public class RemovalDispatcher {
+
+    static final int QUEUE_CAPACITY = 4096;
+
+    private final RemovalListener listener;
+    private final Executor executor;
+    private final Ticker ticker;
+    private final CacheStatistics statistics;
+    private final ArrayBlockingQueue<RemovalNotification> queue;
+    private final AtomicBoolean draining;
+
+    public RemovalDispatcher(RemovalListener listener, Executor executor, Ticker ticker,
+                             CacheStatistics statistics) {
+        this.listener = listener;
+        this.executor = executor;
+        this.ticker = ticker;
+        this.statistics = statistics;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.draining = new AtomicBoolean();
+    }
+
+    /**
+     * Queue a notification for a plan that has left the cache. Dropped if
+     * the listener is too far behind.
+     */
+    public void notify(String cacheKey, CachedPlan plan, RemovalCause cause) {
+        if (!queue.offer(new RemovalNotification(cacheKey, plan, cause, ticker.read()))) {
+            statistics.recordDroppedNotification();
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+        }
+    }
+
+    private void drain() {
+        try {
+            RemovalNotification notification;
+            while ((notification = queue.poll()) != null) {
+                try {
+                    listener.onRemoval(notification);
+                } catch (RuntimeException e) {
+                    // A failing listener must not stop later notifications
+                }
+            }
+        } finally {
+            draining.set(false);
+        }
+        // Catch notifications queued after the last poll
+        scheduleDrain();
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Receives a notification for every plan that leaves the cache.
+ *
+ * Notifications are delivered on the refresh executor, never on the thread
+ * that looked up or stored a plan, so a slow listener only delays later
+ * notifications. They wait in a bounded queue; when the listener falls too
+ * far behind, new ones are dropped and counted in
+ * CacheStatistics.getTotalDroppedNotifications(). Exceptions thrown by the
+ * listener are ignored.
+ */
+@FunctionalInterface
+public interface RemovalListener {
+
+    void onRemoval(RemovalNotification notification);
+}
@@ -0,0 +1,45 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A plan that left the cache, and why
+ */
+public class RemovalNotification {
+    private final String cacheKey;
+    private final String pattern;
+    private final String tenant;
+    private final RemovalCause cause;
+    private final long ageMillis;
+    private final long hitCount;
+    
+    /**
+     * @param now reading of the cache's Ticker when the plan was removed
+     */
+    public RemovalNotification(String cacheKey, CachedPlan plan, RemovalCause cause, long now) {
+        this.cacheKey = cacheKey;
+        this.pattern = (plan.getQuery() == null) ? null : plan.getQuery().getPattern();
+        this.tenant = plan.getTenant();
+        this.cause = cause;
+        this.ageMillis = TimeUnit.NANOSECONDS.toMillis(now - plan.getCreatedNanos());
+        this.hitCount = plan.getHitCount();
+    }
+    
+    public String getCacheKey() { return cacheKey; }
+    
+    /**
+     * Normalized pattern the plan was generated from, or null if unknown
+     */
+    public String getPattern() { return pattern; }
+    public String getTenant() { return tenant; }
+    public RemovalCause getCause() { return cause; }
+    
+    /**
+     * Time since the plan was generated, by the cache's Ticker
+     */
+    public long getAgeMillis() { return ageMillis; }
+    public long getHitCount() { return hitCount; }
+    
+    @Override
+    public String toString() {
+        return String.format("%s %s age=%dms hits=%d", cause, cacheKey, ageMillis, hitCount);
+    }
+}
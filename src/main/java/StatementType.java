@@ -0,0 +1,17 @@
+public enum StatementType {
+    SELECT, INSERT, UPDATE, DELETE, MERGE, WITH;
+    
+    /**
+     * Derive the statement type from the leading keyword of a normalized pattern
+     */
+    public static StatementType fromPattern(String pattern) {
+        String trimmed = pattern.trim();
+        int end = trimmed.indexOf(' ');
+        String keyword = (end < 0 ? trimmed : trimmed.substring(0, end)).toUpperCase();
+        try {
+            return valueOf(keyword);
+        } catch (IllegalArgumentException e) {
+            return SELECT;
+        }
+    }
+}
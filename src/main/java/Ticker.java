@@ -0,0 +1,33 @@
+/**
+ * Source of time for the cache's bookkeeping: TTL checks, refresh-ahead,
+ * access recording, the expiration wheel and the tiers behind the cache.
+ * Readings are nanoseconds from an arbitrary origin, like System.nanoTime(),
+ * and only differences between them are meaningful.
+ *
+ * Tests and benchmarks can supply their own ticker to drive expiration
+ * deterministically. Plan generation cost is always measured with
+ * System.nanoTime(), since it needs precision rather than a cheap read.
+ */
+@FunctionalInterface
+public interface Ticker {
+
+    /**
+     * @return current time in nanoseconds
+     */
+    long read();
+
+    /**
+     * Reads System.nanoTime() every time
+     */
+    static Ticker systemTicker() {
+        return System::nanoTime;
+    }
+
+    /**
+     * System.nanoTime() sampled by a background thread, so a read is a
+     * single volatile load. Lags real time by at most a few milliseconds.
+     */
+    static Ticker coarseTicker() {
+        return CoarseTicker.INSTANCE;
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timer wheel for expiring cache keys in amortized O(1).
+ *
+ * Each level is an array of buckets covering a power-of-two time span
+ * (about 1 second, 1 minute, 1 hour, 1 day, and 6.5 days as the overflow).
+ * A key is placed in the coarsest-needed level; when the wheel advances,
+ * only the buckets whose span has elapsed are visited, and entries that are
+ * not yet due are cascaded down to a finer level.
+ *
+ * Not thread-safe: callers hold the cache's eviction lock.
+ */
+public class TimerWheel {
+
+    private static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+    private static final long[] SPANS = {
+        1L << 30,  // 1.07s
+        1L << 36,  // 1.14m
+        1L << 42,  // 1.22h
+        1L << 47,  // 1.63d
+        1L << 49,  // 6.5d
+        1L << 49,  // 6.5d
+    };
+    private static final long[] SHIFT = {
+        Long.numberOfTrailingZeros(SPANS[0]),
+        Long.numberOfTrailingZeros(SPANS[1]),
+        Long.numberOfTrailingZeros(SPANS[2]),
+        Long.numberOfTrailingZeros(SPANS[3]),
+        Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    private static final class Timer {
+        final String key;
+        long expirationNanos;
+        Timer prev;
+        Timer next;
+
+        Timer(String key) {
+            this.key = key;
+        }
+    }
+
+    private final Timer[][] wheel;
+    private final Map<String, Timer> timers;
+    private long nanos;
+
+    public TimerWheel(long nowNanos) {
+        this.wheel = new Timer[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Timer[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                Timer sentinel = new Timer(null);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+        this.timers = new HashMap<>();
+        this.nanos = nowNanos;
+    }
+
+    /**
+     * Schedule (or reschedule) a key to expire at the given time
+     */
+    public void schedule(String key, long expirationNanos) {
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = new Timer(key);
+            timers.put(key, timer);
+        } else {
+            unlink(timer);
+        }
+        timer.expirationNanos = expirationNanos;
+        link(findBucket(expirationNanos), timer);
+    }
+
+    /**
+     * Remove a key's timer, e.g. when the entry is evicted or invalidated
+     */
+    public void deschedule(String key) {
+        Timer timer = timers.remove(key);
+        if (timer != null) {
+            unlink(timer);
+        }
+    }
+
+    /**
+     * Scheduled expiration time of a key, or Long.MAX_VALUE if none
+     */
+    public long getExpirationNanos(String key) {
+        Timer timer = timers.get(key);
+        return timer == null ? Long.MAX_VALUE : timer.expirationNanos;
+    }
+
+    /**
+     * Advance the wheel to the current time, passing every key that is now
+     * due to the callback. Keys are descheduled before the callback runs.
+     */
+    public void advance(long currentNanos, Consumer<String> onExpired) {
+        long previousNanos = nanos;
+        nanos = currentNanos;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previousNanos >>> SHIFT[i];
+            long currentTicks = currentNanos >>> SHIFT[i];
+            long delta = currentTicks - previousTicks;
+            if (delta <= 0L) {
+                break;
+            }
+            expire(i, previousTicks, delta, onExpired);
+        }
+    }
+
+    public void clear() {
+        for (Timer timer : timers.values()) {
+            timer.prev = null;
+            timer.next = null;
+        }
+        timers.clear();
+        for (Timer[] level : wheel) {
+            for (Timer sentinel : level) {
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+            }
+        }
+    }
+
+    public int size() {
+        return timers.size();
+    }
+
+    /**
+     * Visit the buckets of one level whose span has elapsed
+     */
+    private void expire(int level, long previousTicks, long delta, Consumer<String> onExpired) {
+        Timer[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(1 + delta, buckets.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+
+        for (int i = start; i < end; i++) {
+            Timer sentinel = buckets[i & mask];
+            Timer timer = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+
+            while (timer != sentinel) {
+                Timer next = timer.next;
+                timer.prev = null;
+                timer.next = null;
+
+                if (timer.expirationNanos - nanos > 0) {
+                    // Not due yet: cascade into a finer bucket
+                    link(findBucket(timer.expirationNanos), timer);
+                } else {
+                    timers.remove(timer.key);
+                    onExpired.accept(timer.key);
+                }
+                timer = next;
+            }
+        }
+    }
+
+    private Timer findBucket(long expirationNanos) {
+        long duration = expirationNanos - nanos;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = expirationNanos >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+
+    private static void link(Timer sentinel, Timer timer) {
+        timer.prev = sentinel.prev;
+        timer.next = sentinel;
+        sentinel.prev.next = timer;
+        sentinel.prev = timer;
+    }
+
+    private static void unlink(Timer timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+            timer.next.prev = timer.prev;
+            timer.prev = null;
+            timer.next = null;
+        }
+    }
+}
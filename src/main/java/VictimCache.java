@@ -0,0 +1,125 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Second chance for plans evicted from the main cache. The plan's JSON tree
+ * is kept encoded by PlanCodec, which shrinks it to a few hundred bytes,
+ * next to the PlanHeader needed to rebuild it.
+ *
+ * Entries leave in eviction order once the byte budget is exceeded, into
+ * the disk tier if one is configured. A hit removes the entry and inflates
+ * the plan for promotion into the main cache, which is far cheaper than
+ * parsing and planning it again. Compression happens on the evicting thread
+ * after it released the segment's eviction lock.
+ */
+public class VictimCache {
+
+    // Map entry, key string and the record below, beside the encoded bytes
+    private static final int ENTRY_OVERHEAD = 160;
+
+    /**
+     * An evicted plan, holding the plan JSON encoded
+     */
+    private static final class CompressedPlan {
+        final byte[] encoded;
+        final PlanHeader header;
+        final long weight;
+
+        CompressedPlan(byte[] encoded, String cacheKey, PlanHeader header) {
+            this.encoded = encoded;
+            this.header = header;
+            this.weight = ENTRY_OVERHEAD + encoded.length + DefaultPlanWeigher.sizeOf(cacheKey);
+        }
+    }
+
+    private final long maximumWeightBytes;
+    // Insertion-ordered, so the eldest victim leaves first; guarded by this
+    private final LinkedHashMap<String, CompressedPlan> entries;
+    // Where victims pushed out by the budget go, or null to drop them
+    private final MappedPlanStore overflow;
+    private long weightedSize;
+
+    public VictimCache(long maximumWeightBytes, MappedPlanStore overflow) {
+        this.maximumWeightBytes = maximumWeightBytes;
+        this.entries = new LinkedHashMap<>();
+        this.overflow = overflow;
+    }
+
+    /**
+     * Keep an evicted plan, pushing out the oldest victims if over budget
+     */
+    public void put(String cacheKey, CachedPlan plan) {
+        byte[] encoded = PlanCodec.encode(plan.getPlan());
+        if (encoded == null) {
+            return;
+        }
+        CompressedPlan compressed = new CompressedPlan(encoded, cacheKey, new PlanHeader(plan));
+        if (compressed.weight > maximumWeightBytes) {
+            return;
+        }
+        List<Map.Entry<String, CompressedPlan>> displaced = new ArrayList<>();
+        synchronized (this) {
+            CompressedPlan previous = entries.remove(cacheKey);
+            if (previous != null) {
+                weightedSize -= previous.weight;
+            }
+            entries.put(cacheKey, compressed);
+            weightedSize += compressed.weight;
+
+            Iterator<Map.Entry<String, CompressedPlan>> it = entries.entrySet().iterator();
+            while (weightedSize > maximumWeightBytes && it.hasNext()) {
+                Map.Entry<String, CompressedPlan> eldest = it.next();
+                weightedSize -= eldest.getValue().weight;
+                it.remove();
+                displaced.add(eldest);
+            }
+        }
+        if (overflow != null) {
+            // Already encoded, so moving a victim to disk is a plain copy
+            for (Map.Entry<String, CompressedPlan> victim : displaced) {
+                overflow.put(victim.getKey(), victim.getValue().encoded, victim.getValue().header);
+            }
+        }
+    }
+
+    /**
+     * Remove a victim and rebuild its plan for promotion. The plan keeps its
+     * schema version, expiration and refresh deadlines, so the caller can
+     * validate it like any cached plan.
+     * @param query the normalized query of the pattern being looked up
+     * @return the restored plan, or null if the key is not held
+     */
+    public CachedPlan take(String cacheKey, NormalizedQuery query) {
+        CompressedPlan compressed;
+        synchronized (this) {
+            compressed = entries.remove(cacheKey);
+            if (compressed == null) {
+                return null;
+            }
+            weightedSize -= compressed.weight;
+        }
+        JsonNode plan = PlanCodec.decode(ByteBuffer.wrap(compressed.encoded));
+        return (plan == null) ? null : compressed.header.restore(plan, query);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weightedSize = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Bytes held by compressed victims, including per-entry overhead
+     */
+    public synchronized long getWeightedSize() {
+        return weightedSize;
+    }
+}
@@ -0,0 +1,167 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Window TinyLFU: a small LRU window in front of a segmented LRU main region
+ * (probation + protected). When the cache is full, the oldest window entry
+ * only displaces the main region's victim if the frequency sketch estimates
+ * it is more popular, so one-off bursts cannot flush frequently used plans.
+ */
+public class WTinyLfuPolicy implements EvictionPolicy {
+
+    private static final double WINDOW_PERCENTAGE = 0.01;
+    private static final double PROTECTED_PERCENTAGE = 0.80;
+
+    // Insertion-ordered: first element is the LRU entry of each region
+    private final LinkedHashSet<String> window;
+    private final LinkedHashSet<String> probation;
+    private final LinkedHashSet<String> protectedRegion;
+    private final FrequencySketch sketch;
+    private final CacheStatistics statistics;
+    private int maxWindow;
+    private int maxProtected;
+
+    public WTinyLfuPolicy(int maxEntries, CacheStatistics statistics) {
+        this.window = new LinkedHashSet<>();
+        this.probation = new LinkedHashSet<>();
+        this.protectedRegion = new LinkedHashSet<>();
+        this.sketch = new FrequencySketch(maxEntries);
+        this.statistics = statistics;
+        this.maxWindow = Math.max(1, (int) (maxEntries * WINDOW_PERCENTAGE));
+        this.maxProtected = Math.max(1, (int) ((maxEntries - maxWindow) * PROTECTED_PERCENTAGE));
+    }
+
+    @Override
+    public void add(String key, CachedPlan plan) {
+        sketch.increment(key);
+        if (promote(key)) {
+            return;
+        }
+        window.add(key);
+
+        // Window overflow moves into probation while the cache still has room
+        while (window.size() > maxWindow) {
+            String candidate = pollFirst(window);
+            probation.add(candidate);
+            statistics.recordAdmission();
+        }
+    }
+
+    @Override
+    public void recordAccess(String key) {
+        sketch.increment(key);
+        promote(key);
+    }
+
+    @Override
+    public void remove(String key) {
+        if (!window.remove(key) && !probation.remove(key)) {
+            protectedRegion.remove(key);
+        }
+    }
+
+    /**
+     * The oldest window entry competes with the main region's LRU victim;
+     * the less frequent of the two is evicted.
+     */
+    @Override
+    public String evict() {
+        String candidate = window.size() >= maxWindow ? first(window) : null;
+        String victim = !probation.isEmpty() ? first(probation) : first(protectedRegion);
+
+        if (candidate == null && victim == null) {
+            return pollFirst(window);
+        }
+        if (candidate == null) {
+            removeFromMain(victim);
+            return victim;
+        }
+        window.remove(candidate);
+        if (victim == null) {
+            statistics.recordRejection();
+            return candidate;
+        }
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            removeFromMain(victim);
+            probation.add(candidate);
+            statistics.recordAdmission();
+            return victim;
+        }
+        statistics.recordRejection();
+        return candidate;
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedRegion.clear();
+        sketch.clear();
+    }
+
+    /**
+     * Resize the window and protected regions. The sketch grows with the
+     * cache but is never shrunk.
+     */
+    @Override
+    public void setMaximumSize(int maxEntries) {
+        sketch.ensureCapacity(maxEntries);
+        maxWindow = Math.max(1, (int) (maxEntries * WINDOW_PERCENTAGE));
+        maxProtected = Math.max(1, (int) ((maxEntries - maxWindow) * PROTECTED_PERCENTAGE));
+        while (window.size() > maxWindow) {
+            probation.add(pollFirst(window));
+            statistics.recordAdmission();
+        }
+        while (protectedRegion.size() > maxProtected) {
+            probation.add(pollFirst(protectedRegion));
+        }
+    }
+
+    @Override
+    public int size() {
+        return window.size() + probation.size() + protectedRegion.size();
+    }
+
+    /**
+     * Move a tracked key to the MRU position of its region, promoting
+     * probation entries to protected.
+     * @return false if the key is not tracked
+     */
+    private boolean promote(String key) {
+        if (window.remove(key)) {
+            window.add(key);
+        } else if (probation.remove(key)) {
+            protectedRegion.add(key);
+            // Demote protected overflow back to probation
+            while (protectedRegion.size() > maxProtected) {
+                probation.add(pollFirst(protectedRegion));
+            }
+        } else if (protectedRegion.remove(key)) {
+            protectedRegion.add(key);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void removeFromMain(String key) {
+        if (!probation.remove(key)) {
+            protectedRegion.remove(key);
+        }
+    }
+
+    private static String first(LinkedHashSet<String> region) {
+        Iterator<String> it = region.iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private static String pollFirst(LinkedHashSet<String> region) {
+        Iterator<String> it = region.iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        String key = it.next();
+        it.remove();
+        return key;
+    }
+}
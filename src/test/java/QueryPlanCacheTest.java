@@ -8,8 +8,12 @@ import org.junit.jupiter.params.provider.ValueSource;
 import org.junit.jupiter.params.provider.CsvSource;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
 import java.util.stream.IntStream;
 
 /**
@@ -616,6 +620,42 @@ public class QueryPlanCacheTest {
             // Should not exceed max size
             assertTrue(smallCache.getCacheSize() <= maxSize);
         }
+        
+        @Test
+        @DisplayName("Should reject repeated unparseable statements from the negative cache")
+        void testNegativeCache() throws Exception {
+            String badQuery = "SELEC * FORM orders";
+            RuntimeException first = assertThrows(RuntimeException.class,
+                () -> cacheManager.getExecutionPlan(badQuery));
+            RuntimeException second = assertThrows(RuntimeException.class,
+                () -> cacheManager.getExecutionPlan(badQuery));
+            
+            assertEquals(first.getMessage(), second.getMessage());
+            assertEquals(1, cacheManager.getStatistics().getTotalNegativeHits());
+            
+            // Expired failures are parsed again
+            QueryPlanCacheManager shortLived = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .negativeCache(10, 1));
+            assertThrows(RuntimeException.class, () -> shortLived.getExecutionPlan(badQuery));
+            Thread.sleep(5);
+            assertThrows(RuntimeException.class, () -> shortLived.getExecutionPlan(badQuery));
+            assertEquals(0, shortLived.getStatistics().getTotalNegativeHits());
+        }
+        
+        @Test
+        @DisplayName("Fingerprints should distinguish statements differing in one character")
+        void testQueryFingerprint() {
+            String query = "SELECT * FROM orders WHERE id = 1";
+            assertEquals(QueryFingerprint.of(query), QueryFingerprint.of(new StringBuilder(query)));
+            assertNotEquals(QueryFingerprint.of(query), QueryFingerprint.of(query.replace('1', '2')));
+            assertNotEquals(QueryFingerprint.of(""), QueryFingerprint.of(" "));
+            
+            // Tenant fingerprints differ from the statement's and from each other
+            QueryFingerprint fingerprint = QueryFingerprint.of(query);
+            assertEquals(fingerprint.forTenant("acme"), QueryFingerprint.of(query).forTenant("acme"));
+            assertNotEquals(fingerprint, fingerprint.forTenant("acme"));
+            assertNotEquals(fingerprint.forTenant("acme"), fingerprint.forTenant("globex"));
+        }
     }
     
     // ========================================================================
@@ -655,4 +695,1259 @@ public class QueryPlanCacheTest {
             assertTrue(hitRatio > 0.70);
         }
     }
+    
+    // ========================================================================
+    // 10. EVICTION TESTS
+    // ========================================================================
+    
+    @Nested
+    @DisplayName("Eviction Tests")
+    class EvictionTests {
+        
+        @Test
+        @DisplayName("Should evict the least recently used plan")
+        void testLeastRecentlyUsedIsEvicted() {
+            QueryPlanCacheManager smallCache = new QueryPlanCacheManager(3, 3600000);
+            
+            smallCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            smallCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            smallCache.getExecutionPlan("SELECT * FROM products WHERE id = 1");
+            
+            // Touch orders so users becomes the LRU entry
+            smallCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            smallCache.getExecutionPlan("SELECT * FROM customers WHERE id = 1");
+            
+            assertEquals(3, smallCache.getCacheSize());
+            assertEquals(1, smallCache.getStatistics().getTotalEvictions());
+            
+            long hitsBefore = smallCache.getStatistics().getTotalHits();
+            smallCache.getExecutionPlan("SELECT * FROM orders WHERE id = 3");
+            assertEquals(1, smallCache.getStatistics().getTotalHits() - hitsBefore);
+            
+            long missesBefore = smallCache.getStatistics().getTotalMisses();
+            smallCache.getExecutionPlan("SELECT * FROM users WHERE id = 2");
+            assertEquals(1, smallCache.getStatistics().getTotalMisses() - missesBefore);
+        }
+        
+        @Test
+        @DisplayName("Should keep the cache bounded under concurrent misses")
+        void testConcurrentEvictionStaysBounded() throws Exception {
+            QueryPlanCacheManager smallCache = new QueryPlanCacheManager(50, 3600000);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> futures = new ArrayList<>();
+            
+            for (int t = 0; t < 8; t++) {
+                final int threadId = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        smallCache.getExecutionPlan("SELECT * FROM t" + (threadId * 200 + i) + " WHERE id = 1");
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+            
+            assertTrue(smallCache.getCacheSize() <= 50);
+        }
+        
+        @Test
+        @DisplayName("Buffered hits should be replayed into per-entry counters")
+        void testBufferedHitsReplayed() {
+            for (int i = 0; i < 41; i++) {
+                cacheManager.getExecutionPlan("SELECT * FROM orders WHERE id = " + i);
+            }
+            
+            List<PlanEntryStatistics> entries = cacheManager.getPlanStatistics();
+            assertEquals(1, entries.size());
+            assertEquals(40, entries.get(0).getHitCount());
+        }
+        
+        @Test
+        @DisplayName("Segments should split capacity and share statistics")
+        void testSegmentedCache() throws Exception {
+            QueryPlanCacheManager segmentedCache = new QueryPlanCacheManager(
+                new QueryPlanCacheConfig().maxCacheSize(64).segments(8));
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> futures = new ArrayList<>();
+            
+            for (int t = 0; t < 8; t++) {
+                final int threadId = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        segmentedCache.getExecutionPlan("SELECT * FROM t" + (threadId * 100 + i) + " WHERE id = 1");
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+            
+            int size = segmentedCache.getCacheSize();
+            assertTrue(size <= 64);
+            assertEquals(size, segmentedCache.getPlanStatistics().size());
+            assertEquals(800, segmentedCache.getStatistics().getTotalMisses());
+            assertEquals(800 - size, segmentedCache.getStatistics().getTotalEvictions());
+        }
+        
+        @Test
+        @DisplayName("W-TinyLFU should keep hot plans through a one-off query burst")
+        void testTinyLfuResistsScan() {
+            QueryPlanCacheManager tinyLfuCache =
+                new QueryPlanCacheManager(20, 3600000, WTinyLfuPolicy::new);
+            
+            // Hot OLTP patterns, each seen several times
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 10; i++) {
+                    tinyLfuCache.getExecutionPlan("SELECT * FROM hot" + i + " WHERE id = " + round);
+                }
+            }
+            
+            // Reporting burst of one-off patterns
+            for (int i = 0; i < 200; i++) {
+                tinyLfuCache.getExecutionPlan("SELECT * FROM report" + i + " WHERE id = 1");
+            }
+            
+            long hitsBefore = tinyLfuCache.getStatistics().getTotalHits();
+            for (int i = 0; i < 10; i++) {
+                tinyLfuCache.getExecutionPlan("SELECT * FROM hot" + i + " WHERE id = 99");
+            }
+            
+            assertEquals(10, tinyLfuCache.getStatistics().getTotalHits() - hitsBefore);
+            assertTrue(tinyLfuCache.getStatistics().getTotalRejections() > 0);
+            assertTrue(tinyLfuCache.getCacheSize() <= 20);
+        }
+        
+        @ParameterizedTest
+        @ValueSource(strings = {"lru", "lfu", "fifo", "clock", "arc", "w-tinylfu", "gdsf"})
+        @DisplayName("Every eviction policy should bound the cache and report counters")
+        void testPolicyBoundsCache(String policyName) {
+            QueryPlanCacheManager policyCache =
+                new QueryPlanCacheManager(10, 3600000, EvictionPolicy.forName(policyName));
+            
+            for (int i = 0; i < 50; i++) {
+                policyCache.getExecutionPlan("SELECT * FROM t" + (i % 25) + " WHERE id = " + i);
+            }
+            
+            CacheStatistics stats = policyCache.getStatistics();
+            assertTrue(policyCache.getCacheSize() <= 10);
+            assertTrue(stats.getTotalEvictions() > 0);
+            assertTrue(stats.getTotalAdmissions() > 0);
+            assertEquals(50, stats.getTotalHits() + stats.getTotalMisses());
+        }
+        
+        @Test
+        @DisplayName("LFU should evict the least frequently used plan")
+        void testLfuEvictsLeastFrequent() {
+            QueryPlanCacheManager lfuCache = new QueryPlanCacheManager(2, 3600000, LfuPolicy::new);
+            
+            lfuCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            lfuCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            lfuCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            lfuCache.getExecutionPlan("SELECT * FROM products WHERE id = 1");
+            
+            long hitsBefore = lfuCache.getStatistics().getTotalHits();
+            lfuCache.getExecutionPlan("SELECT * FROM orders WHERE id = 3");
+            assertEquals(1, lfuCache.getStatistics().getTotalHits() - hitsBefore);
+        }
+        
+        @Test
+        @DisplayName("FIFO should evict the oldest plan regardless of hits")
+        void testFifoIgnoresHits() {
+            QueryPlanCacheManager fifoCache = new QueryPlanCacheManager(2, 3600000, FifoPolicy::new);
+            
+            fifoCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            fifoCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            fifoCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            fifoCache.getExecutionPlan("SELECT * FROM products WHERE id = 1");
+            
+            long missesBefore = fifoCache.getStatistics().getTotalMisses();
+            fifoCache.getExecutionPlan("SELECT * FROM orders WHERE id = 3");
+            assertEquals(1, fifoCache.getStatistics().getTotalMisses() - missesBefore);
+        }
+        
+        @Test
+        @DisplayName("Unknown policy names should be rejected")
+        void testUnknownPolicyName() {
+            assertThrows(IllegalArgumentException.class, () -> EvictionPolicy.forName("random"));
+        }
+        
+        @Test
+        @DisplayName("Resizing should shrink to the new size and grow without evicting")
+        void testSetMaximumSize() {
+            QueryPlanCacheManager resizableCache = new QueryPlanCacheManager(1000, 3600000);
+            for (int i = 0; i < 1000; i++) {
+                resizableCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            
+            resizableCache.setMaximumSize(10);
+            assertEquals(10, resizableCache.getMaximumSize());
+            assertEquals(10, resizableCache.getCacheSize());
+            assertEquals(990, resizableCache.getStatistics().getTotalEvictions());
+            
+            resizableCache.setMaximumSize(50);
+            for (int i = 0; i < 40; i++) {
+                resizableCache.getExecutionPlan("SELECT * FROM u" + i + " WHERE id = 1");
+            }
+            assertEquals(50, resizableCache.getCacheSize());
+            assertEquals(990, resizableCache.getStatistics().getTotalEvictions());
+        }
+        
+        @Test
+        @DisplayName("Tier 1 should stay within its bounds and keep frequently used queries")
+        void testBoundedTier1() {
+            QueryPlanCacheManager tier1Cache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .tier1Capacity(10, 10_000));
+            String hotQuery = "SELECT * FROM orders WHERE id = 0";
+            tier1Cache.getExecutionPlan(hotQuery);
+            for (int i = 1; i <= 50; i++) {
+                tier1Cache.getExecutionPlan(hotQuery);
+                tier1Cache.getExecutionPlan("SELECT * FROM orders WHERE id = " + i);
+            }
+            
+            CacheStatistics stats = tier1Cache.getStatistics();
+            assertEquals(41, stats.getTotalTier1Evictions());
+            // Every lookup of the hot query after the first skipped parsing
+            assertEquals(50, stats.getTotalTier1Hits());
+            assertEquals(51, stats.getTotalTier1Misses());
+            
+            tier1Cache.cleanUp();
+            assertEquals(1, tier1Cache.getCacheSize());
+            
+            // Tier 1 is also bounded by the bytes it retains, a fixed cost per fingerprint
+            QueryPlanCacheManager byteBound = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .tier1Capacity(1000, 5 * QueryKeyCache.ENTRY_OVERHEAD));
+            for (int i = 0; i < 20; i++) {
+                byteBound.getExecutionPlan("SELECT * FROM orders WHERE id = " + i);
+            }
+            assertEquals(15, byteBound.getStatistics().getTotalTier1Evictions());
+        }
+        
+        @Test
+        @DisplayName("Tier 1 verification should turn a fingerprint collision into a miss")
+        void testTier1Verification() {
+            QueryPlanCacheManager verifiedCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .tier1Verification(true));
+            String sql = "SELECT * FROM orders WHERE id = 1";
+            verifiedCache.getExecutionPlan(sql);
+            verifiedCache.getExecutionPlan(sql);
+            assertEquals(1, verifiedCache.getStatistics().getTotalTier1Hits());
+            assertEquals(0, verifiedCache.getStatistics().getTotalTier1Collisions());
+            
+            // Force a collision by reusing one query's fingerprint for another
+            CacheStatistics stats = new CacheStatistics();
+            QueryKeyCache keyCache = new QueryKeyCache(100, 1 << 20, true, stats, (f, key) -> { });
+            QueryFingerprint fingerprint = QueryFingerprint.of(sql);
+            String tenant = QueryPlanCacheManager.DEFAULT_TENANT;
+            keyCache.put(fingerprint, tenant, sql, "orders");
+            assertEquals("orders", keyCache.get(fingerprint, tenant, sql));
+            assertNull(keyCache.get(fingerprint, tenant, "SELECT * FROM users WHERE id = 1"));
+            assertEquals(1, stats.getTotalTier1Collisions());
+            assertEquals(1, stats.getTotalTier1Misses());
+            
+            // The tenant is verified separately from the query
+            assertNull(keyCache.get(fingerprint, "acme", sql));
+            assertEquals(2, stats.getTotalTier1Collisions());
+            
+            // Without verification the fingerprint alone decides
+            QueryKeyCache unverified = new QueryKeyCache(100, 1 << 20, false, stats, (f, key) -> { });
+            unverified.put(fingerprint, tenant, sql, "orders");
+            assertEquals("orders", unverified.get(fingerprint, tenant, "SELECT * FROM users WHERE id = 1"));
+            assertEquals(QueryKeyCache.ENTRY_OVERHEAD, unverified.getRetainedBytes());
+        }
+        
+        @Test
+        @DisplayName("Miss ratio curve should locate the working set size")
+        void testMissRatioCurve() {
+            QueryPlanCacheManager sampledCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .missRatioCurve(64, 1.0));
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 20; i++) {
+                    sampledCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+                }
+            }
+            
+            MissRatioCurve curve = sampledCache.getStatistics().getMissRatioCurve();
+            assertEquals(200, curve.getSampleCount());
+            // A cyclic scan over 20 plans only hits once all 20 fit
+            assertEquals(1.0, curve.missRatioAt(19), 0.001);
+            assertEquals(0.1, curve.missRatioAt(20), 0.001);
+            assertEquals(20, curve.smallestSizeFor(0.85));
+            assertNull(cacheManager.getStatistics().getMissRatioCurve());
+        }
+        
+        @Test
+        @DisplayName("Autotune should size the cache from the miss ratio curve")
+        void testAutotune() {
+            AtomicLong time = new AtomicLong();
+            QueryPlanCacheManager tunedCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(1000)
+                .missRatioCurve(64, 1.0)
+                .autotune(10, 1000, 0.8)
+                .ticker(time::get)
+                .refreshExecutor(Runnable::run));
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 20; i++) {
+                    tunedCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+                }
+            }
+            assertEquals(1000, tunedCache.getMaximumSize());
+            
+            // The next miss after the interval applies the curve
+            time.addAndGet(TimeUnit.MILLISECONDS.toNanos(QueryPlanCacheConfig.DEFAULT_AUTOTUNE_INTERVAL_MILLIS));
+            tunedCache.getExecutionPlan("SELECT * FROM u0 WHERE id = 1");
+            assertEquals(20, tunedCache.getMaximumSize());
+        }
+        
+        @Test
+        @DisplayName("A queued autotune resize should not undo a heap pressure shed")
+        void testAutotuneAfterShed() {
+            AtomicLong time = new AtomicLong();
+            List<Runnable> tasks = new ArrayList<>();
+            QueryPlanCacheManager tunedCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(1000)
+                .missRatioCurve(64, 1.0)
+                .autotune(10, 1000, 0.8)
+                .ticker(time::get)
+                .refreshExecutor(tasks::add));
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 20; i++) {
+                    tunedCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+                }
+            }
+            time.addAndGet(TimeUnit.MILLISECONDS.toNanos(QueryPlanCacheConfig.DEFAULT_AUTOTUNE_INTERVAL_MILLIS));
+            tunedCache.getExecutionPlan("SELECT * FROM u0 WHERE id = 1");
+            assertEquals(1, tasks.size());
+            
+            // Pressure arrives between choosing the size and applying it
+            tunedCache.onHeapPressure();
+            int shedSize = tunedCache.getCacheSize();
+            tasks.remove(0).run();
+            
+            assertEquals(1000, tunedCache.getMaximumSize());
+            for (int i = 100; i < 200; i++) {
+                tunedCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            assertTrue(tunedCache.getCacheSize() <= shedSize);
+        }
+        
+        @Test
+        @DisplayName("Evicted plans should be promoted back from the victim tier")
+        void testVictimCachePromotion() {
+            QueryPlanCacheManager victimCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(2)
+                .victimCacheWeightBytes(1L << 20));
+            
+            victimCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            victimCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            victimCache.getExecutionPlan("SELECT * FROM products WHERE id = 1");
+            victimCache.cleanUp();
+            
+            ExecutionPlan plan = victimCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            assertNotNull(plan);
+            assertEquals(1, victimCache.getStatistics().getTotalVictimHits());
+            assertEquals(4, victimCache.getStatistics().getTotalMisses());
+            assertEquals(3, victimCache.getStatistics().getTotalPlansGenerated());
+            
+            // Victims are planned against the old schema
+            victimCache.cleanUp();
+            victimCache.onSchemaChange("users");
+            victimCache.getExecutionPlan("SELECT * FROM users WHERE id = 2");
+            assertEquals(1, victimCache.getStatistics().getTotalVictimHits());
+        }
+        
+        @Test
+        @DisplayName("Evicted plans should be promoted back from the disk tier")
+        void testDiskTierPromotion() throws Exception {
+            Path directory = Files.createTempDirectory("plan-tier");
+            QueryPlanCacheManager diskCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(2)
+                .diskTier(directory, 1 << 20));
+            
+            diskCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            diskCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            diskCache.getExecutionPlan("SELECT * FROM products WHERE id = 1");
+            diskCache.cleanUp();
+            
+            ExecutionPlan plan = diskCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            assertEquals("MockPlan", plan.getPlanJson().get("planType").asText());
+            assertEquals(1, diskCache.getStatistics().getTotalDiskHits());
+            assertEquals(3, diskCache.getStatistics().getTotalPlansGenerated());
+            
+            // Mapped files are unlinked as soon as they are mapped
+            try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                assertEquals(0, files.count());
+            }
+        }
+        
+        @Test
+        @DisplayName("Disk tier compaction should keep live plans readable")
+        void testDiskTierCompaction() throws Exception {
+            MappedPlanStore store = new MappedPlanStore(
+                Files.createTempDirectory("plan-tier"), 4096, Runnable::run, Ticker.systemTicker(),
+                new CacheStatistics());
+            QueryNormalizer normalizer = new QueryNormalizer();
+            PlanGenerator generator = new PlanGenerator();
+            List<NormalizedQuery> queries = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                NormalizedQuery query = normalizer.normalize("SELECT * FROM t" + i + " WHERE id = 1");
+                queries.add(query);
+                store.put("key" + i, new CachedPlan(generator.generate(query.getPattern()), query, "v1",
+                    System.currentTimeMillis(), 0));
+            }
+            long appended = store.getFileBytes();
+            
+            for (int i = 0; i < 15; i++) {
+                assertNotNull(store.take("key" + i, queries.get(i)));
+            }
+            // The next write leaves most of the file dead and compacts it
+            store.put("key0", new CachedPlan(generator.generate(queries.get(0).getPattern()), queries.get(0),
+                "v1", System.currentTimeMillis(), 0));
+            
+            assertTrue(store.getFileBytes() < appended);
+            assertEquals(0, store.getDeadBytes());
+            assertEquals(6, store.size());
+            assertNotNull(store.take("key0", queries.get(0)));
+            for (int i = 15; i < 20; i++) {
+                CachedPlan restored = store.take("key" + i, queries.get(i));
+                assertEquals(queries.get(i).getPattern(), restored.getPlan().get("query").asText());
+            }
+        }
+        
+        @Test
+        @DisplayName("A full disk tier should make room by dropping expired, then oldest plans")
+        void testDiskTierFullOfUnreclaimedPlans() throws Exception {
+            AtomicLong time = new AtomicLong();
+            CacheStatistics stats = new CacheStatistics();
+            List<Runnable> compactions = new ArrayList<>();
+            MappedPlanStore store = new MappedPlanStore(
+                Files.createTempDirectory("plan-tier"), 4096, compactions::add, time::get, stats);
+            QueryNormalizer normalizer = new QueryNormalizer();
+            PlanGenerator generator = new PlanGenerator();
+            List<NormalizedQuery> queries = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                queries.add(normalizer.normalize("SELECT * FROM t" + i + " WHERE id = 1"));
+            }
+            IntFunction<CachedPlan> planFor = i -> new CachedPlan(
+                generator.generate(queries.get(i).getPattern()), queries.get(i), "v1", System.currentTimeMillis(), 0);
+            
+            // Fill the file with plans that then expire, none of them taken
+            int written = 0;
+            while (compactions.isEmpty()) {
+                CachedPlan plan = planFor.apply(written);
+                plan.setExpirationNanos(10);
+                store.put("expiring" + written++, plan);
+            }
+            assertEquals(0, store.getDeadBytes());
+            assertEquals(1, stats.getTotalDiskDroppedWrites());
+            time.set(20);
+            compactions.remove(0).run();
+            assertEquals(0, store.size());
+            assertEquals(0, stats.getTotalDiskEvictions());
+            
+            // A file full of live plans evicts the oldest and keeps taking new ones
+            written = 0;
+            while (compactions.isEmpty()) {
+                store.put("live" + written, planFor.apply(written));
+                written++;
+            }
+            compactions.remove(0).run();
+            assertTrue(stats.getTotalDiskEvictions() > 0);
+            store.put("latest", planFor.apply(written));
+            assertNotNull(store.take("latest", queries.get(written)));
+            assertNull(store.take("live0", queries.get(0)));
+            assertNotNull(store.take("live" + (written - 2), queries.get(written - 2)));
+        }
+        
+        @Test
+        @DisplayName("Clearing the disk tier should refill its file, and closing should release it")
+        void testDiskTierClearAndClose() throws Exception {
+            CacheStatistics stats = new CacheStatistics();
+            MappedPlanStore store = new MappedPlanStore(
+                Files.createTempDirectory("plan-tier"), 1 << 16, Runnable::run, Ticker.systemTicker(), stats);
+            QueryNormalizer normalizer = new QueryNormalizer();
+            PlanGenerator generator = new PlanGenerator();
+            List<NormalizedQuery> queries = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                queries.add(normalizer.normalize("SELECT * FROM t" + i + " WHERE id = 1"));
+            }
+            IntFunction<CachedPlan> planFor = i -> new CachedPlan(
+                generator.generate(queries.get(i).getPattern()), queries.get(i), "v1", System.currentTimeMillis(), 0);
+            for (int i = 0; i < 5; i++) {
+                store.put("key" + i, planFor.apply(i));
+            }
+            
+            // New plans overwrite the old ones from the front of the same file
+            store.clear();
+            assertEquals(0, store.size());
+            assertEquals(0, store.getFileBytes());
+            for (int i = 5; i < 10; i++) {
+                store.put("key" + i, planFor.apply(i));
+            }
+            assertNull(store.take("key0", queries.get(0)));
+            CachedPlan restored = store.take("key5", queries.get(5));
+            assertEquals(queries.get(5).getPattern(), restored.getPlan().get("query").asText());
+            
+            store.close();
+            assertEquals(0, store.size());
+            assertEquals(0, store.getFileBytes());
+            store.put("key0", planFor.apply(0));
+            assertEquals(0, store.size());
+            assertEquals(1, stats.getTotalDiskDroppedWrites());
+        }
+        
+        @Test
+        @DisplayName("Closing the cache should release its disk tier and off-heap slabs")
+        void testCloseReleasesTiers() throws Exception {
+            QueryPlanCacheManager tieredCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(2)
+                .diskTier(Files.createTempDirectory("plan-tier"), 1 << 20)
+                .offHeapStorage(1 << 16));
+            tieredCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            tieredCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            tieredCache.getExecutionPlan("SELECT * FROM products WHERE id = 1");
+            tieredCache.cleanUp();
+            assertTrue(tieredCache.getStatistics().getOffHeapBytes() > 0);
+            
+            tieredCache.close();
+            assertEquals(0, tieredCache.getStatistics().getOffHeapBytes());
+            
+            // Still usable, without the disk tier behind it
+            ExecutionPlan plan = tieredCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            assertEquals("MockPlan", plan.getPlanJson().get("planType").asText());
+            assertEquals(0, tieredCache.getStatistics().getTotalDiskHits());
+        }
+        
+        @Test
+        @DisplayName("Removal listener should receive the cause of every removal")
+        void testRemovalListener() {
+            List<RemovalNotification> removals = new CopyOnWriteArrayList<>();
+            AtomicLong time = new AtomicLong();
+            QueryPlanCacheManager listenedCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(2)
+                .ttlMillis(60_000)
+                .ticker(time::get)
+                .refreshExecutor(Runnable::run)
+                .removalListener(removals::add));
+            
+            listenedCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            listenedCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            listenedCache.getExecutionPlan("SELECT * FROM products WHERE id = 1");
+            listenedCache.cleanUp();
+            assertEquals(1, removals.size());
+            assertEquals(RemovalCause.SIZE, removals.get(0).getCause());
+            String ordersPattern = new QueryNormalizer().normalize("SELECT * FROM orders WHERE id = 1").getPattern();
+            assertEquals(ordersPattern, removals.get(0).getPattern());
+            
+            listenedCache.onSchemaChange("users");
+            assertEquals(RemovalCause.SCHEMA, removals.get(1).getCause());
+            
+            time.addAndGet(TimeUnit.SECONDS.toNanos(61));
+            listenedCache.cleanUp();
+            assertEquals(RemovalCause.EXPIRED, removals.get(2).getCause());
+            // Ages follow the cache's ticker, not the wall clock
+            assertEquals(61_000, removals.get(2).getAgeMillis());
+            
+            listenedCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            listenedCache.clearCache();
+            assertEquals(RemovalCause.EXPLICIT, removals.get(3).getCause());
+            assertEquals(4, removals.size());
+            assertEquals(0, listenedCache.getStatistics().getTotalDroppedNotifications());
+        }
+        
+        @Test
+        @DisplayName("Plans kept stale after a schema change should be reported as SCHEMA")
+        void testRemovalCauseWhileServingStale() {
+            List<RemovalNotification> removals = new CopyOnWriteArrayList<>();
+            AtomicLong time = new AtomicLong();
+            QueryPlanCacheManager staleCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .ttlMillis(60_000)
+                .staleWhileRevalidateMillis(1_000)
+                .ticker(time::get)
+                .refreshExecutor(Runnable::run)
+                .removalListener(removals::add));
+            
+            staleCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            staleCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            staleCache.onSchemaChange("users");
+            assertTrue(removals.isEmpty());
+            
+            // One plan is replaced by its regeneration, the other reclaimed after the grace window
+            staleCache.getExecutionPlan("SELECT * FROM users WHERE id = 2");
+            time.addAndGet(TimeUnit.SECONDS.toNanos(2));
+            staleCache.cleanUp();
+            assertEquals(2, removals.size());
+            for (RemovalNotification removal : removals) {
+                assertEquals(RemovalCause.SCHEMA, removal.getCause());
+            }
+        }
+    }    
+    // ========================================================================
+    // 11. MEMORY-WEIGHTED CAPACITY TESTS
+    // ========================================================================
+    
+    @Nested
+    @DisplayName("Memory-Weighted Capacity Tests")
+    class WeightedCapacityTests {
+        
+        @Test
+        @DisplayName("Should track the estimated size of cached plans")
+        void testWeightedSizeTracked() {
+            cacheManager.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            long oneEntry = cacheManager.getWeightedSize();
+            assertTrue(oneEntry > 0);
+            
+            cacheManager.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            assertTrue(cacheManager.getWeightedSize() > oneEntry);
+            assertEquals(cacheManager.getWeightedSize(), cacheManager.getStatistics().getWeightedSize());
+            
+            cacheManager.onSchemaChange("orders");
+            cacheManager.onSchemaChange("users");
+            assertEquals(0, cacheManager.getWeightedSize());
+        }
+        
+        @Test
+        @DisplayName("Should evict against the byte budget before the entry limit")
+        void testByteBudgetEnforced() {
+            cacheManager.getExecutionPlan("SELECT * FROM t0 WHERE id = 1");
+            long entryWeight = cacheManager.getWeightedSize();
+            long budget = entryWeight * 3 + entryWeight / 2;
+            
+            QueryPlanCacheManager weightedCache = new QueryPlanCacheManager(
+                new QueryPlanCacheConfig().maxCacheSize(1000).maximumWeightBytes(budget));
+            for (int i = 0; i < 10; i++) {
+                weightedCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            
+            assertTrue(weightedCache.getWeightedSize() <= budget);
+            assertEquals(3, weightedCache.getCacheSize());
+            assertEquals(7, weightedCache.getStatistics().getTotalEvictions());
+        }
+        
+        @Test
+        @DisplayName("Should not cache a plan larger than the whole budget")
+        void testOversizedPlanNotCached() {
+            QueryPlanCacheManager tinyBudget = new QueryPlanCacheManager(
+                new QueryPlanCacheConfig().maximumWeightBytes(64));
+            
+            ExecutionPlan plan = tinyBudget.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            
+            assertNotNull(plan);
+            assertEquals(0, tinyBudget.getCacheSize());
+            assertEquals(0, tinyBudget.getWeightedSize());
+            assertEquals(1, tinyBudget.getStatistics().getTotalOversizedRejections());
+            assertEquals(0, tinyBudget.getStatistics().getTotalRejections());
+        }
+        
+        @Test
+        @DisplayName("Should record generation cost per cached plan")
+        void testGenerationCostRecorded() {
+            cacheManager.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            
+            List<PlanEntryStatistics> entries = cacheManager.getPlanStatistics();
+            assertEquals(1, entries.size());
+            assertTrue(entries.get(0).getGenerationCostNanos() > 0);
+            assertTrue(entries.get(0).getWeight() > 0);
+            assertEquals(1, cacheManager.getStatistics().getTotalPlansGenerated());
+        }
+        
+        @Test
+        @DisplayName("GDSF should evict cheap plans before expensive ones")
+        void testGdsfPrefersExpensivePlans() {
+            GdsfPolicy policy = new GdsfPolicy(10, new CacheStatistics());
+            CachedPlan expensive = new CachedPlan(null, Collections.emptyList(), "v1", 0, 20_000_000L);
+            CachedPlan cheap = new CachedPlan(null, Collections.emptyList(), "v1", 0, 20_000L);
+            expensive.setWeight(1000);
+            cheap.setWeight(1000);
+            
+            policy.add("expensive", expensive);
+            policy.add("cheap", cheap);
+            // Frequency helps, but not enough to outweigh a 1000x cost gap
+            for (int i = 0; i < 10; i++) {
+                policy.recordAccess("cheap");
+            }
+            
+            assertEquals("cheap", policy.evict());
+            assertEquals("expensive", policy.evict());
+            assertNull(policy.evict());
+        }
+        
+        @Test
+        @DisplayName("Statement type pools should keep MERGE plans from crowding out SELECTs")
+        void testStatementTypePool() {
+            QueryPlanCacheManager pooledCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(30)
+                .statementTypePool(StatementType.MERGE, 5, 1L << 20));
+            
+            for (int i = 0; i < 20; i++) {
+                pooledCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            for (int i = 0; i < 20; i++) {
+                pooledCache.getExecutionPlan("MERGE INTO m" + i + " USING s ON m.id = s.id "
+                    + "WHEN MATCHED THEN UPDATE m" + i + " SET v = 1");
+            }
+            for (int i = 0; i < 20; i++) {
+                pooledCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 2");
+            }
+            
+            // Only MERGE plans were evicted, to fit their pool of five
+            assertEquals(15, pooledCache.getStatistics().getTotalEvictions());
+            assertEquals(25, pooledCache.getCacheSize());
+            assertEquals(0.5, pooledCache.getStatistics().getHitRatio(StatementType.SELECT), 0.001);
+            assertEquals(20, pooledCache.getStatistics().getTotalMisses(StatementType.MERGE));
+        }
+        
+        @Test
+        @DisplayName("Caches should share one heap pressure threshold until closed")
+        void testHeapPressureThresholdShared() {
+            QueryPlanCacheConfig config = new QueryPlanCacheConfig().heapPressureThreshold(0.95);
+            QueryPlanCacheManager first = new QueryPlanCacheManager(config);
+            QueryPlanCacheManager second = new QueryPlanCacheManager(config);
+            
+            assertThrows(IllegalStateException.class, () -> new QueryPlanCacheManager(
+                new QueryPlanCacheConfig().heapPressureThreshold(0.9)));
+            
+            first.close();
+            assertThrows(IllegalStateException.class, () -> new QueryPlanCacheManager(
+                new QueryPlanCacheConfig().heapPressureThreshold(0.9)));
+            second.close();
+            
+            // With every cache closed the threshold is free again
+            try (QueryPlanCacheManager other = new QueryPlanCacheManager(
+                    new QueryPlanCacheConfig().heapPressureThreshold(0.9))) {
+                assertNotNull(other.getExecutionPlan("SELECT * FROM users WHERE id = 1"));
+            }
+        }
+        
+        @Test
+        @DisplayName("Heap pressure should shed cold plans and recover capacity afterwards")
+        void testHeapPressureShedding() throws InterruptedException {
+            QueryPlanCacheManager shedCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(100)
+                .heapPressureShedFraction(0.5)
+                .heapPressureRecoveryMillis(1));
+            for (int i = 0; i < 100; i++) {
+                shedCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            for (int i = 50; i < 100; i++) {
+                shedCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            
+            shedCache.onHeapPressure();
+            assertEquals(50, shedCache.getCacheSize());
+            assertEquals(1, shedCache.getStatistics().getTotalPressureSheds());
+            
+            // The recently used half survives, in Tier 1 as well
+            long missesBefore = shedCache.getStatistics().getTotalMisses();
+            long tier1HitsBefore = shedCache.getStatistics().getTotalTier1Hits();
+            shedCache.getExecutionPlan("SELECT * FROM t99 WHERE id = 1");
+            assertEquals(missesBefore, shedCache.getStatistics().getTotalMisses());
+            assertEquals(tier1HitsBefore + 1, shedCache.getStatistics().getTotalTier1Hits());
+            
+            // No pressure is reported, so the next miss restores capacity
+            Thread.sleep(5);
+            for (int i = 0; i < 60; i++) {
+                shedCache.getExecutionPlan("SELECT * FROM u" + i + " WHERE id = 1");
+            }
+            assertEquals(100, shedCache.getCacheSize());
+        }
+        
+        @Test
+        @DisplayName("Off-heap plans should be served from direct memory and freed on removal")
+        void testOffHeapStorage() {
+            QueryPlanCacheManager offHeapCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(50)
+                .offHeapStorage(1 << 16));
+            for (int i = 0; i < 100; i++) {
+                offHeapCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            offHeapCache.cleanUp();
+            assertEquals(50, offHeapCache.getCacheSize());
+            
+            CacheStatistics stats = offHeapCache.getStatistics();
+            long used = stats.getOffHeapUsedBytes();
+            assertTrue(used > 0);
+            assertTrue(stats.getOffHeapBytes() >= used);
+            assertTrue(stats.getOffHeapFragmentation() > 0 && stats.getOffHeapFragmentation() < 1);
+            
+            long hitsBefore = stats.getTotalHits();
+            ExecutionPlan plan = offHeapCache.getExecutionPlan("SELECT * FROM t99 WHERE id = 2");
+            assertEquals(hitsBefore + 1, stats.getTotalHits());
+            assertEquals("MockPlan", plan.getPlanJson().get("planType").asText());
+            
+            // Evicted chunks were reused, so slabs stay sized for the live plans
+            long reserved = stats.getOffHeapBytes();
+            offHeapCache.clearCache();
+            assertEquals(0, stats.getOffHeapUsedBytes());
+            assertEquals(reserved, stats.getOffHeapBytes());
+        }
+    }    
+    // ========================================================================
+    // 12. EXPIRATION TESTS
+    // ========================================================================
+    
+    @Nested
+    @DisplayName("Expiration Tests")
+    class ExpirationTests {
+        
+        @Test
+        @DisplayName("Timer wheel should fire only once the deadline has passed")
+        void testTimerWheelFiresWhenDue() {
+            long start = 0;
+            TimerWheel wheel = new TimerWheel(start);
+            List<String> expired = new ArrayList<>();
+            
+            wheel.schedule("soon", start + TimeUnit.SECONDS.toNanos(2));
+            wheel.schedule("later", start + TimeUnit.MINUTES.toNanos(5));
+            wheel.schedule("cancelled", start + TimeUnit.SECONDS.toNanos(2));
+            wheel.deschedule("cancelled");
+            
+            wheel.advance(start + TimeUnit.SECONDS.toNanos(1), expired::add);
+            assertTrue(expired.isEmpty());
+            
+            wheel.advance(start + TimeUnit.SECONDS.toNanos(4), expired::add);
+            assertEquals(Arrays.asList("soon"), expired);
+            
+            wheel.advance(start + TimeUnit.MINUTES.toNanos(4), expired::add);
+            assertEquals(1, expired.size());
+            
+            wheel.advance(start + TimeUnit.MINUTES.toNanos(6), expired::add);
+            assertEquals(Arrays.asList("soon", "later"), expired);
+            assertEquals(0, wheel.size());
+        }
+        
+        @Test
+        @DisplayName("Should reclaim expired plans without them being queried")
+        void testExpiredPlansReclaimed() throws Exception {
+            QueryPlanCacheManager shortTtl = new QueryPlanCacheManager(100, 100);
+            for (int i = 0; i < 5; i++) {
+                shortTtl.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            assertEquals(5, shortTtl.getCacheSize());
+            
+            // Wheel resolution is about one second
+            Thread.sleep(1200);
+            shortTtl.cleanUp();
+            
+            assertEquals(0, shortTtl.getCacheSize());
+            assertEquals(0, shortTtl.getWeightedSize());
+            assertEquals(5, shortTtl.getStatistics().getTotalExpirations());
+            assertEquals(0, shortTtl.getStatistics().getTotalEvictions());
+        }
+        
+        @Test
+        @DisplayName("A custom ticker should drive expiration without sleeping")
+        void testTickerDrivesExpiration() {
+            AtomicLong time = new AtomicLong();
+            QueryPlanCacheManager tickerCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .ttlMillis(60_000)
+                .ticker(time::get));
+            tickerCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            
+            time.addAndGet(TimeUnit.SECONDS.toNanos(30));
+            tickerCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            assertEquals(1, tickerCache.getStatistics().getTotalHits());
+            tickerCache.cleanUp();
+            assertEquals(1, tickerCache.getCacheSize());
+            
+            // Last access is reported on the wall clock, relative to the ticker
+            PlanEntryStatistics entry = tickerCache.getPlanStatistics().get(0);
+            assertEquals(1, entry.getHitCount());
+            assertTrue(Math.abs(System.currentTimeMillis() - entry.getLastAccessTime()) < 1000);
+            
+            time.addAndGet(TimeUnit.SECONDS.toNanos(31));
+            tickerCache.cleanUp();
+            assertEquals(0, tickerCache.getCacheSize());
+            assertEquals(1, tickerCache.getStatistics().getTotalExpirations());
+        }
+        
+        @Test
+        @DisplayName("Expiry should set lifetimes per statement type")
+        void testPerStatementTypeExpiry() {
+            List<StatementType> created = new ArrayList<>();
+            Expiry expiry = (query, type, tables, cost) -> {
+                created.add(type);
+                return type == StatementType.SELECT ? 3600000 : 0;
+            };
+            QueryPlanCacheManager perTypeCache =
+                new QueryPlanCacheManager(new QueryPlanCacheConfig().expiry(expiry));
+            
+            perTypeCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            perTypeCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            perTypeCache.getExecutionPlan("DELETE FROM orders WHERE id = 1");
+            perTypeCache.getExecutionPlan("DELETE FROM orders WHERE id = 2");
+            
+            // The SELECT plan is reused, the DELETE plan expires immediately
+            assertEquals(1, perTypeCache.getStatistics().getTotalHits());
+            assertEquals(3, perTypeCache.getStatistics().getTotalMisses());
+            assertEquals(Arrays.asList(StatementType.SELECT, StatementType.DELETE), created.subList(0, 2));
+        }
+        
+        @Test
+        @DisplayName("Expiry should see reads with the plan's tables")
+        void testExpiryAfterRead() {
+            List<Set<String>> readTables = new ArrayList<>();
+            Expiry slidingExpiry = new Expiry() {
+                @Override
+                public long expireAfterCreate(NormalizedQuery query, StatementType type,
+                                              Set<String> tables, long generationCostNanos) {
+                    return 60000;
+                }
+                
+                @Override
+                public long expireAfterRead(NormalizedQuery query, StatementType type,
+                                            Set<String> tables, long generationCostNanos,
+                                            long currentDurationMillis) {
+                    readTables.add(tables);
+                    return 60000;
+                }
+            };
+            QueryPlanCacheManager slidingCache =
+                new QueryPlanCacheManager(new QueryPlanCacheConfig().expiry(slidingExpiry));
+            
+            slidingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            slidingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            slidingCache.cleanUp();
+            
+            assertEquals(1, readTables.size());
+            assertTrue(readTables.get(0).contains("orders"));
+        }
+        
+        @Test
+        @DisplayName("Hits past refreshAfterWrite should regenerate the plan in the background")
+        void testRefreshAhead() throws Exception {
+            List<Runnable> refreshes = new ArrayList<>();
+            QueryPlanCacheManager refreshingCache = new QueryPlanCacheManager(
+                new QueryPlanCacheConfig()
+                    .ttlMillis(3600000)
+                    .refreshAfterWriteMillis(20)
+                    .refreshExecutor(refreshes::add));
+            
+            refreshingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            refreshingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            assertTrue(refreshes.isEmpty());
+            
+            Thread.sleep(50);
+            refreshingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 3");
+            refreshingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 4");
+            
+            // The stale plan is still served and only one refresh is queued
+            assertEquals(1, refreshes.size());
+            assertEquals(3, refreshingCache.getStatistics().getTotalHits());
+            
+            refreshes.get(0).run();
+            assertEquals(1, refreshingCache.getStatistics().getTotalRefreshes());
+            assertEquals(1, refreshingCache.getCacheSize());
+            
+            // The fresh plan resets the threshold and is served from Tier 1
+            refreshingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            assertEquals(1, refreshes.size());
+            assertEquals(1, refreshingCache.getStatistics().getTotalMisses());
+        }
+        
+        @Test
+        @DisplayName("A refreshed plan should keep its eviction history")
+        void testRefreshKeepsPolicyHistory() {
+            for (String policy : new String[] {"lfu", "gdsf"}) {
+                AtomicLong time = new AtomicLong();
+                List<Runnable> refreshes = new ArrayList<>();
+                QueryPlanCacheManager refreshingCache = new QueryPlanCacheManager(
+                    new QueryPlanCacheConfig()
+                        .maxCacheSize(3)
+                        .segments(1)
+                        .evictionPolicy(EvictionPolicy.forName(policy))
+                        .ttlMillis(3600000)
+                        .refreshAfterWriteMillis(1000)
+                        .ticker(time::get)
+                        .refreshExecutor(refreshes::add));
+                
+                for (int i = 0; i < 20; i++) {
+                    refreshingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+                }
+                refreshingCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+                refreshingCache.getExecutionPlan("SELECT * FROM products WHERE id = 1");
+                time.addAndGet(TimeUnit.SECONDS.toNanos(2));
+                refreshingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+                assertEquals(1, refreshes.size());
+                refreshes.get(0).run();
+                refreshingCache.cleanUp();
+                
+                // Three one-off plans push out the cold plans, not the refreshed hot one
+                for (int i = 0; i < 3; i++) {
+                    refreshingCache.getExecutionPlan("SELECT * FROM t" + i + " WHERE id = 1");
+                    refreshingCache.cleanUp();
+                }
+                long misses = refreshingCache.getStatistics().getTotalMisses();
+                refreshingCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+                assertEquals(misses, refreshingCache.getStatistics().getTotalMisses(), policy);
+            }
+        }
+        
+        @Test
+        @DisplayName("Schema-invalidated plans should be served stale while one refresh runs")
+        void testStaleWhileRevalidate() {
+            List<Runnable> refreshes = new ArrayList<>();
+            QueryPlanCacheManager staleCache = new QueryPlanCacheManager(
+                new QueryPlanCacheConfig()
+                    .staleWhileRevalidateMillis(60000)
+                    .refreshExecutor(refreshes::add));
+            
+            staleCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            staleCache.onSchemaChange("orders");
+            
+            staleCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            staleCache.getExecutionPlan("SELECT * FROM orders WHERE id = 3");
+            assertEquals(2, staleCache.getStatistics().getTotalStaleServes());
+            assertEquals(1, refreshes.size());
+            
+            refreshes.get(0).run();
+            staleCache.getExecutionPlan("SELECT * FROM orders WHERE id = 4");
+            
+            assertEquals(1, staleCache.getStatistics().getTotalMisses());
+            assertEquals(1, staleCache.getStatistics().getTotalHits());
+            assertEquals(1, staleCache.getStatistics().getTotalRefreshes());
+        }
+        
+        @Test
+        @DisplayName("Stale-unsafe tables should drop plans on schema change")
+        void testStaleUnsafeTable() {
+            List<Runnable> refreshes = new ArrayList<>();
+            QueryPlanCacheManager staleCache = new QueryPlanCacheManager(
+                new QueryPlanCacheConfig()
+                    .staleWhileRevalidateMillis(60000)
+                    .staleUnsafeTables("orders")
+                    .refreshExecutor(refreshes::add));
+            
+            staleCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            staleCache.getExecutionPlan("SELECT * FROM users WHERE id = 1");
+            staleCache.onSchemaChange("orders");
+            
+            staleCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            staleCache.getExecutionPlan("SELECT * FROM users WHERE id = 2");
+            
+            // Only the plan that does not touch the unsafe table is served stale
+            assertEquals(1, staleCache.getStatistics().getTotalStaleServes());
+            assertEquals(3, staleCache.getStatistics().getTotalMisses());
+        }
+        
+        @Test
+        @DisplayName("Changing the TTL should apply to plans already cached")
+        void testSetTtl() throws InterruptedException {
+            QueryPlanCacheManager ttlCache = new QueryPlanCacheManager(100, 3600000);
+            ttlCache.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            
+            ttlCache.setTtl(50);
+            assertEquals(50, ttlCache.getTtlMillis());
+            Thread.sleep(100);
+            
+            ttlCache.getExecutionPlan("SELECT * FROM orders WHERE id = 2");
+            assertEquals(2, ttlCache.getStatistics().getTotalMisses());
+        }
+        
+        @Test
+        @DisplayName("setTtl should be refused when lifetimes come from a custom Expiry")
+        void testSetTtlWithCustomExpiry() {
+            QueryPlanCacheManager expiryCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .expiry(Expiry.afterCreate(1000)));
+            assertThrows(IllegalStateException.class, () -> expiryCache.setTtl(500));
+        }
+    }
+    
+    // ========================================================================
+    // 13. PINNING TESTS
+    // ========================================================================
+    
+    @Nested
+    @DisplayName("Pinning Tests")
+    class PinningTests {
+        
+        @Test
+        @DisplayName("Pinned plans should survive an eviction storm")
+        void testPinnedPlanNotEvicted() {
+            QueryPlanCacheManager smallCache = new QueryPlanCacheManager(5, 3600000);
+            smallCache.pin("SELECT * FROM users WHERE session_token = 'abc'");
+            
+            for (int i = 0; i < 50; i++) {
+                smallCache.getExecutionPlan("SELECT * FROM report" + i + " WHERE id = 1");
+            }
+            smallCache.getExecutionPlan("SELECT * FROM users WHERE session_token = 'xyz'");
+            
+            // The pinned plan is a hit and does not use the five regular slots
+            assertEquals(50, smallCache.getStatistics().getTotalMisses());
+            assertEquals(1, smallCache.getStatistics().getTotalHits());
+            assertEquals(6, smallCache.getCacheSize());
+        }
+        
+        @Test
+        @DisplayName("Pinned plans should not expire")
+        void testPinnedPlanNotExpired() throws Exception {
+            QueryPlanCacheManager shortTtl = new QueryPlanCacheManager(100, 100);
+            shortTtl.pin("SELECT * FROM users WHERE id = 1");
+            shortTtl.getExecutionPlan("SELECT * FROM orders WHERE id = 1");
+            
+            Thread.sleep(1200);
+            shortTtl.cleanUp();
+            
+            assertEquals(1, shortTtl.getCacheSize());
+            shortTtl.getExecutionPlan("SELECT * FROM users WHERE id = 2");
+            assertEquals(1, shortTtl.getStatistics().getTotalHits());
+        }
+        
+        @Test
+        @DisplayName("Schema changes should regenerate pinned plans eagerly")
+        void testPinnedPlanRegenerated() {
+            cacheManager.pin("SELECT * FROM users WHERE id = 1");
+            long generated = cacheManager.getStatistics().getTotalPlansGenerated();
+            
+            cacheManager.onSchemaChange("users");
+            
+            assertEquals(generated + 1, cacheManager.getStatistics().getTotalPlansGenerated());
+            cacheManager.getExecutionPlan("SELECT * FROM users WHERE id = 2");
+            assertEquals(1, cacheManager.getStatistics().getTotalHits());
+            assertEquals(0, cacheManager.getStatistics().getTotalMisses());
+        }
+        
+        @Test
+        @DisplayName("Pinning should respect its own budget, and unpinning should free it")
+        void testPinnedBudget() {
+            QueryPlanCacheManager pinnedCache =
+                new QueryPlanCacheManager(new QueryPlanCacheConfig().maxPinnedPlans(1));
+            pinnedCache.pin("SELECT * FROM users WHERE id = 1");
+            
+            assertThrows(IllegalStateException.class,
+                () -> pinnedCache.pin("SELECT * FROM orders WHERE id = 1"));
+            
+            assertTrue(pinnedCache.unpin("SELECT * FROM users WHERE id = 7"));
+            assertFalse(pinnedCache.unpin("SELECT * FROM users WHERE id = 7"));
+            pinnedCache.pin("SELECT * FROM orders WHERE id = 1");
+            assertEquals(1, pinnedCache.getPinnedCount());
+            assertEquals(2, pinnedCache.getCacheSize());
+        }
+        
+        @Test
+        @DisplayName("Pinning for a tenant should pin only that tenant's plan")
+        void testTenantPinnedPlan() {
+            QueryPlanCacheManager smallCache = new QueryPlanCacheManager(5, 3600000);
+            smallCache.pin("acme", "SELECT * FROM users WHERE session_token = 'abc'");
+            
+            for (int i = 0; i < 50; i++) {
+                smallCache.getExecutionPlan("acme", "SELECT * FROM report" + i + " WHERE id = 1");
+            }
+            smallCache.getExecutionPlan("acme", "SELECT * FROM users WHERE session_token = 'xyz'");
+            smallCache.getExecutionPlan("globex", "SELECT * FROM users WHERE session_token = 'xyz'");
+            
+            assertEquals(1, smallCache.getTenantStatistics("acme").getTotalHits());
+            assertEquals(1, smallCache.getTenantStatistics("globex").getTotalMisses());
+            assertFalse(smallCache.unpin("SELECT * FROM users WHERE session_token = 'abc'"));
+            assertTrue(smallCache.unpin("acme", "SELECT * FROM users WHERE session_token = 'abc'"));
+            assertEquals(0, smallCache.getPinnedCount());
+        }
+    }
+    
+    // ========================================================================
+    // 14. MULTI-TENANT TESTS
+    // ========================================================================
+    
+    @Nested
+    @DisplayName("Multi-Tenant Tests")
+    class MultiTenantTests {
+        
+        @Test
+        @DisplayName("Tenants should not share plans")
+        void testTenantsIsolated() {
+            cacheManager.getExecutionPlan("acme", "SELECT * FROM users WHERE id = 1");
+            cacheManager.getExecutionPlan("globex", "SELECT * FROM users WHERE id = 1");
+            cacheManager.getExecutionPlan("acme", "SELECT * FROM users WHERE id = 2");
+            
+            assertEquals(2, cacheManager.getCacheSize());
+            assertEquals(1, cacheManager.getTenantStatistics("acme").getTotalHits());
+            assertEquals(1, cacheManager.getTenantStatistics("acme").getTotalMisses());
+            assertEquals(1, cacheManager.getTenantStatistics("globex").getTotalMisses());
+            assertEquals(2, cacheManager.getStatistics().getTotalMisses());
+        }
+        
+        @Test
+        @DisplayName("A busy tenant should borrow idle capacity and give it back first")
+        void testFairShareEviction() {
+            QueryPlanCacheManager sharedCache = new QueryPlanCacheManager(20, 3600000);
+            
+            // The noisy tenant borrows the whole cache while nobody else uses it
+            for (int i = 0; i < 20; i++) {
+                sharedCache.getExecutionPlan("noisy", "SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            assertEquals(0, sharedCache.getStatistics().getTotalEvictions());
+            
+            // The quiet tenant's plans displace the noisy tenant's, down to an even split
+            for (int i = 0; i < 15; i++) {
+                sharedCache.getExecutionPlan("quiet", "SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            assertEquals(10, sharedCache.getTenantStatistics("noisy").getTotalEvictions());
+            assertEquals(5, sharedCache.getTenantStatistics("quiet").getTotalEvictions());
+            
+            for (int i = 10; i < 15; i++) {
+                sharedCache.getExecutionPlan("quiet", "SELECT * FROM t" + i + " WHERE id = 2");
+            }
+            assertEquals(5, sharedCache.getTenantStatistics("quiet").getTotalHits());
+        }
+        
+        @Test
+        @DisplayName("Configured quotas should decide which tenant is over its share")
+        void testConfiguredQuota() {
+            QueryPlanCacheManager quotaCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(20)
+                .tenantQuota("gold", 15, 1L << 30)
+                .tenantQuota("bronze", 5, 1L << 30));
+            
+            for (int i = 0; i < 15; i++) {
+                quotaCache.getExecutionPlan("bronze", "SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            for (int i = 0; i < 15; i++) {
+                quotaCache.getExecutionPlan("gold", "SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            
+            assertEquals(0, quotaCache.getTenantStatistics("gold").getTotalEvictions());
+            assertEquals(10, quotaCache.getTenantStatistics("bronze").getTotalEvictions());
+        }
+        
+        @Test
+        @DisplayName("Growing a tenant's sketch should keep the counts it has")
+        void testSketchGrowthKeepsCounts() {
+            FrequencySketch sketch = new FrequencySketch(64);
+            for (int i = 0; i < 5; i++) {
+                sketch.increment("hot");
+            }
+            sketch.increment("warm");
+            
+            sketch.ensureCapacity(4096);
+            assertEquals(5, sketch.frequency("hot"));
+            assertEquals(1, sketch.frequency("warm"));
+            
+            // Later increments land in the larger table only
+            sketch.increment("hot");
+            assertEquals(6, sketch.frequency("hot"));
+        }
+        
+        @Test
+        @DisplayName("Tenants without a quota should split what quotas leave over")
+        void testQuotaAndFairShareTenants() {
+            QueryPlanCacheManager mixedCache = new QueryPlanCacheManager(new QueryPlanCacheConfig()
+                .maxCacheSize(200)
+                .evictionPolicy(EvictionPolicy.forName("w-tinylfu"))
+                .tenantQuota("gold", 100, 1L << 30));
+            
+            // Well past the size a tenant's policy starts at
+            for (int i = 0; i < 200; i++) {
+                mixedCache.getExecutionPlan("free", "SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            for (int i = 0; i < 100; i++) {
+                mixedCache.getExecutionPlan("gold", "SELECT * FROM t" + i + " WHERE id = 1");
+            }
+            
+            assertEquals(0, mixedCache.getTenantStatistics("gold").getTotalEvictions());
+            assertEquals(100, mixedCache.getTenantStatistics("free").getTotalEvictions());
+            assertEquals(200, mixedCache.getCacheSize());
+        }
+    }
 }
\ No newline at end of file